@@ -1,26 +1,92 @@
 package com.adguard.stores.metadata.exporter;
 
+import com.adguard.stores.appstoreconnect.ApiException;
+import com.adguard.stores.metadata.exporter.http.CachingHttpClient;
+import com.adguard.stores.metadata.exporter.http.Cassette;
+import com.adguard.stores.metadata.exporter.http.HttpMetrics;
+import com.adguard.stores.metadata.exporter.http.HttpResponseCache;
+import com.adguard.stores.metadata.exporter.http.MetricsHttpClient;
+import com.adguard.stores.metadata.exporter.http.MetricsHttpTransport;
+import com.adguard.stores.metadata.exporter.http.RecordingHttpClient;
+import com.adguard.stores.metadata.exporter.http.RecordingHttpTransport;
+import com.adguard.stores.metadata.exporter.http.ReplayHttpClient;
+import com.adguard.stores.metadata.exporter.http.ReplayHttpTransport;
+import com.adguard.stores.metadata.exporter.jfr.AppExportEvent;
+import com.adguard.stores.metadata.exporter.jfr.FlightRecording;
+import com.adguard.stores.metadata.exporter.logging.LogConfiguration;
+import com.adguard.stores.metadata.exporter.logging.LogFormat;
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.ExportState;
+import com.adguard.stores.metadata.exporter.model.RunSummary;
+import com.adguard.stores.metadata.exporter.service.AppSelector;
 import com.adguard.stores.metadata.exporter.service.AppStoreConnectService;
+import com.adguard.stores.metadata.exporter.service.AssetExporter;
+import com.adguard.stores.metadata.exporter.service.CheckpointJournal;
+import com.adguard.stores.metadata.exporter.service.ExportStateStore;
 import com.adguard.stores.metadata.exporter.service.GooglePlayService;
+import com.adguard.stores.metadata.exporter.service.GoogleTokenCache;
 import com.adguard.stores.metadata.exporter.service.MetadataExporter;
+import com.adguard.stores.metadata.exporter.service.ReviewExporter;
+import com.adguard.stores.metadata.exporter.sink.ArchiveMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.DirectoryMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.FileTreeSink;
+import com.adguard.stores.metadata.exporter.sink.GitMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.HistoryDatabaseSink;
+import com.adguard.stores.metadata.exporter.sink.MetadataDocuments;
+import com.adguard.stores.metadata.exporter.sink.MetadataSink;
+import com.adguard.stores.metadata.exporter.sink.NdjsonMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.OutputFormat;
+import com.adguard.stores.metadata.exporter.sink.OutputLayout;
+import com.adguard.stores.metadata.exporter.sink.ParquetMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.SnapshotMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.SnapshotStore;
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.adguard.stores.metadata.exporter.trace.TraceRecorder;
+import com.google.api.client.http.HttpTransport;
+import com.google.auth.oauth2.GoogleCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.spi.LoggingEventBuilder;
 import picocli.CommandLine;
 import picocli.CommandLine.Command;
 import picocli.CommandLine.Option;
 
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.http.HttpClient;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 @Command(
         name = "store-metadata-exporter",
         mixinStandardHelpOptions = true,
         version = "1.0",
-        description = "Extract App Store Connect and Google Play metadata and write to a directory"
+        description = "Extract App Store Connect and Google Play metadata and write to a directory",
+        subcommands = {SnapshotCommand.class, UnpackCommand.class}
 )
 public class MetadataExporterApp implements Callable<Integer> {
 
+    private static final Logger log = LoggerFactory.getLogger(MetadataExporterApp.class);
+
     // App Store Connect options
     @Option(names = {"--asc-issuer-id"}, description = "App Store Connect Issuer ID", 
             defaultValue = "${ASC_ISSUER_ID}")
@@ -37,6 +103,25 @@ public class MetadataExporterApp implements Callable<Integer> {
             defaultValue = "${ASC_PRIVATE_KEY}")
     private String ascPrivateKeyContent;
 
+    @Option(names = {"--asc-include"}, description = "App Store apps to export (comma-separated): bundle ids, "
+            + "bundle id globs (com.example.*) or SKUs (sku:EXAMPLE); all apps when omitted",
+            defaultValue = "${ASC_INCLUDE}")
+    private String ascInclude;
+
+    @Option(names = {"--asc-exclude"}, description = "App Store apps to skip (comma-separated), same syntax as --asc-include",
+            defaultValue = "${ASC_EXCLUDE}")
+    private String ascExclude;
+
+    @Option(names = {"--asc-in-app-purchases"}, description = "Also export the localized names and descriptions "
+            + "of in-app purchases, subscription groups and subscriptions",
+            defaultValue = "${ASC_IN_APP_PURCHASES:-false}")
+    private boolean ascInAppPurchases;
+
+    @Option(names = {"--asc-concurrency"}, description = "Number of in-app purchase listings of an app fetched "
+            + "concurrently (default: ${DEFAULT-VALUE})",
+            defaultValue = "${ASC_CONCURRENCY:-4}")
+    private int ascConcurrency;
+
     // Google Play options
     @Option(names = {"--gp-service-account-file"}, description = "Path to Google Play service account JSON file")
     private File gpServiceAccountFile;
@@ -53,140 +138,816 @@ public class MetadataExporterApp implements Callable<Integer> {
             defaultValue = "${GP_PACKAGE_NAMES_FILE}")
     private String gpPackageNamesFile;
 
+    @Option(names = {"--gp-batch"}, description = "Fetch Google Play apps with batch requests "
+            + "(3 round trips per 50 packages instead of 4 per package)",
+            defaultValue = "${GP_BATCH:-false}")
+    private boolean gpBatch;
+
+    @Option(names = {"--gp-concurrency"}, description = "Number of Google Play apps fetched concurrently "
+            + "(default: ${DEFAULT-VALUE})",
+            defaultValue = "${GP_CONCURRENCY:-4}")
+    private int gpConcurrency;
+
+    @Option(names = {"--gp-token-cache"}, description = "Encrypted file that keeps the Google OAuth access token "
+            + "between runs; the token is reused while it is valid for at least 5 more minutes",
+            defaultValue = "${GP_TOKEN_CACHE}")
+    private String gpTokenCache;
+
     private static final String DEFAULT_PACKAGE_NAMES_FILE = "gp-packages.txt";
 
     // Common options
+    @Option(names = {"--locales"}, description = "Locales to export (comma-separated, e.g. en-US,de-DE); "
+            + "all locales when omitted",
+            defaultValue = "${LOCALES}")
+    private String locales;
+
     @Option(names = {"--output-dir", "-o"}, description = "Output directory for metadata files", 
             defaultValue = "${OUTPUT_DIR:-.}")
     private File outputDir;
 
+    @Option(names = {"--format"}, description = "Output format: ${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})",
+            defaultValue = "${OUTPUT_FORMAT:-directory}")
+    private OutputFormat format;
+
+    @Option(names = {"--layout"}, description = "File layout for directory, archive, git and snapshot formats: "
+            + "${COMPLETION-CANDIDATES} (default: ${DEFAULT-VALUE})",
+            defaultValue = "${OUTPUT_LAYOUT:-tree}")
+    private OutputLayout layout;
+
+    @Option(names = {"--output-file"}, description = "Output file for single-file formats, '-' for stdout "
+            + "(default: metadata.ndjson, metadata.tar.gz or metadata-history.mv.db in the output directory)")
+    private String outputFile;
+
+    @Option(names = {"--commit-message"}, description = "Commit message for the git output format "
+            + "(default: Update store metadata <UTC timestamp>)")
+    private String commitMessage;
+
+    @Option(names = {"--assets-dir"}, description = "Directory for App Store screenshots and app preview poster "
+            + "frames; unchanged images are not downloaded again",
+            defaultValue = "${ASSETS_DIR}")
+    private String assetsDir;
+
+    @Option(names = {"--assets-concurrency"}, description = "Number of asset images downloaded concurrently "
+            + "(default: ${DEFAULT-VALUE})",
+            defaultValue = "${ASSETS_CONCURRENCY:-4}")
+    private int assetsConcurrency;
+
+    @Option(names = {"--reviews-dir"}, description = "Directory for App Store customer reviews, appended to one "
+            + "NDJSON file per app and territory; only reviews newer than the last run are fetched",
+            defaultValue = "${REVIEWS_DIR}")
+    private String reviewsDir;
+
+    @Option(names = {"--reviews-since"}, description = "Oldest review date to export (yyyy-MM-dd); older reviews "
+            + "are not listed (default: no limit)",
+            defaultValue = "${REVIEWS_SINCE}")
+    private String reviewsSince;
+
+    @Option(names = {"--reviews-max-pages"}, description = "Pages of 200 reviews listed for an app whose reviews "
+            + "were never exported, 0 for no limit; older reviews are skipped (default: ${DEFAULT-VALUE})",
+            defaultValue = "${REVIEWS_MAX_PAGES:-50}")
+    private int reviewsMaxPages;
+
+    @Option(names = {"--state-file"}, description = "State file with per-app version watermarks; App Store apps "
+            + "whose watermark did not change since the previous run are not re-fetched",
+            defaultValue = "${STATE_FILE}")
+    private String stateFile;
+
+    @Option(names = {"--full-refresh-every"}, description = "Re-fetch all apps every N runs even if their "
+            + "watermark did not change, 0 to never force (default: ${DEFAULT-VALUE})",
+            defaultValue = "${FULL_REFRESH_EVERY:-0}")
+    private int fullRefreshEvery;
+
+    @Option(names = {"--checkpoint-file"}, description = "Journal of the apps exported so far; kept when a run "
+            + "does not complete, deleted when it does",
+            defaultValue = "${CHECKPOINT_FILE}")
+    private String checkpointFile;
+
+    @Option(names = {"--resume"}, description = "Skip apps recorded in the checkpoint journal of an interrupted run",
+            defaultValue = "${RESUME:-false}")
+    private boolean resume;
+
+    @Option(names = {"--resume-max-age"}, description = "Maximum age of a checkpoint journal to resume from, "
+            + "as an ISO-8601 duration (default: ${DEFAULT-VALUE})",
+            defaultValue = "${RESUME_MAX_AGE:-PT6H}")
+    private Duration resumeMaxAge;
+
+    @Option(names = {"--http-cache-dir"}, description = "Directory for a persistent App Store Connect HTTP response cache",
+            defaultValue = "${HTTP_CACHE_DIR}")
+    private String httpCacheDir;
+
+    @Option(names = {"--http-cache-ttl"}, description = "How long cached responses without validators are reused "
+            + "without a request, ISO-8601 duration such as PT12H (default: ${DEFAULT-VALUE})",
+            defaultValue = "${HTTP_CACHE_TTL:-PT0S}")
+    private Duration httpCacheTtl;
+
+    @Option(names = {"--metrics-dir"}, description = "Directory for per-endpoint HTTP metrics "
+            + "(metrics.json and metrics.prom in Prometheus text format)",
+            defaultValue = "${METRICS_DIR}")
+    private String metricsDir;
+
+    @Option(names = {"--jfr"}, description = "Write a JDK Flight Recorder recording of the run to this file, "
+            + "including HTTP, parsing, file output and per-app events",
+            defaultValue = "${JFR_FILE}")
+    private String jfrFile;
+
+    @Option(names = {"--summary-file"}, description = "Write a JSON summary of the run to this file: apps per store, "
+            + "written and skipped files, failures, phase durations and HTTP request totals",
+            defaultValue = "${SUMMARY_FILE}")
+    private String summaryFile;
+
+    @Option(names = {"--trace"}, description = "Write a Chrome trace-event timeline of the run to this file, "
+            + "with spans for stores, apps, HTTP calls, parsing and file writes",
+            defaultValue = "${TRACE_FILE}")
+    private String traceFile;
+
+    @Option(names = {"--record"}, description = "Record all HTTP exchanges (credentials redacted) into this directory")
+    private File recordDir;
+
+    @Option(names = {"--replay"}, description = "Serve all HTTP exchanges from a directory written with --record, "
+            + "without network access or credentials")
+    private File replayDir;
+
+    @Option(names = {"--replay-latency"}, description = "Delay of each replayed exchange: milliseconds or 'recorded' "
+            + "(default: ${DEFAULT-VALUE})", defaultValue = "0")
+    private String replayLatency;
+
     @Option(names = {"--dry-run"}, description = "Show what would be done without writing files")
     private boolean dryRun;
 
-    @Option(names = {"--verbose", "-v"}, description = "Verbose output")
+    @Option(names = {"--verbose", "-v"}, description = "Log debug messages")
     private boolean verbose;
 
+    @Option(names = {"--log-format"}, description = "Log format on stderr: ${COMPLETION-CANDIDATES} "
+            + "(default: ${DEFAULT-VALUE})",
+            defaultValue = "${LOG_FORMAT:-text}")
+    private LogFormat logFormat;
+
     public static void main(String[] args) {
-        int exitCode = new CommandLine(new MetadataExporterApp()).execute(args);
+        int exitCode = new CommandLine(new MetadataExporterApp())
+                .setCaseInsensitiveEnumValuesAllowed(true)
+                .execute(args);
+        // Drains the asynchronous log appender
+        LogConfiguration.shutdown();
         System.exit(exitCode);
     }
 
+    private Cassette cassette;
+    private CheckpointJournal journal;
+    private HttpMetrics metrics;
+    private RunSummary summary;
+    private AssetExporter assetExporter;
+    private ReviewExporter reviewExporter;
+    private ExecutorService productExecutor;
+    // Set when an app or a store was skipped because of an error; the checkpoint journal is then kept
+    private boolean incomplete;
+
     @Override
     public Integer call() throws Exception {
-        boolean hasAscCredentials = hasAppStoreConnectCredentials();
-        boolean hasGpCredentials = hasGooglePlayCredentials();
+        LogConfiguration.configure(logFormat, verbose);
+        if (recordDir != null && replayDir != null) {
+            log.error("--record and --replay cannot be combined");
+            return 1;
+        }
+        if (recordDir != null) {
+            cassette = Cassette.record(recordDir.toPath());
+        } else if (replayDir != null) {
+            cassette = Cassette.replay(replayDir.toPath(), replayLatency);
+        }
+
+        FlightRecording recording = isValidValue(jfrFile) ? FlightRecording.start(Path.of(jfrFile)) : null;
+        TraceRecorder trace = isValidValue(traceFile) ? TraceRecorder.start(Path.of(traceFile)) : null;
+        try (Span span = Span.begin("run", "store-metadata-exporter")) {
+            return export();
+        } finally {
+            if (cassette != null) {
+                cassette.close();
+            }
+            if (recording != null) {
+                recording.close();
+                log.atInfo().addKeyValue("file", recording.getFile()).log("Flight recording written");
+            }
+            if (trace != null) {
+                trace.close();
+                log.atInfo().addKeyValue("file", trace.getFile()).log("Trace written");
+            }
+        }
+    }
+
+    private int export() throws Exception {
+        boolean hasAscCredentials = isReplay()
+                ? cassette.hasRecordings(Cassette.APP_STORE)
+                : hasAppStoreConnectCredentials();
+        boolean hasGpCredentials = isReplay()
+                ? cassette.hasRecordings(Cassette.GOOGLE_PLAY) && hasPackageNames()
+                : hasGooglePlayCredentials();
 
         if (!hasAscCredentials && !hasGpCredentials) {
-            System.err.println("Error: No store credentials provided.");
-            System.err.println("Provide App Store Connect credentials (ASC_ISSUER_ID, ASC_KEY_ID, ASC_PRIVATE_KEY)");
-            System.err.println("and/or Google Play credentials:");
-            System.err.println("  - GP_SERVICE_ACCOUNT or --gp-service-account-file");
-            System.err.println("  - GP_PACKAGE_NAMES or --gp-package-names or gp-packages.txt file");
+            log.error("No store credentials provided. Provide App Store Connect credentials "
+                    + "(ASC_ISSUER_ID, ASC_KEY_ID, ASC_PRIVATE_KEY) and/or Google Play credentials "
+                    + "(GP_SERVICE_ACCOUNT or --gp-service-account-file, and GP_PACKAGE_NAMES, "
+                    + "--gp-package-names or a gp-packages.txt file)");
             return 1;
         }
 
-        if (verbose) {
-            System.out.println("Output directory: " + outputDir.getAbsolutePath());
-            System.out.println("Dry run: " + dryRun);
-            System.out.println("App Store Connect: " + (hasAscCredentials ? "enabled" : "disabled"));
-            System.out.println("Google Play: " + (hasGpCredentials ? "enabled" : "disabled"));
+        log.atDebug()
+                .addKeyValue("outputDir", outputDir.getAbsolutePath())
+                .addKeyValue("format", format)
+                .addKeyValue("layout", layout)
+                .addKeyValue("dryRun", dryRun)
+                .addKeyValue("locales", parseLocales() != null ? String.join(",", parseLocales()) : "all")
+                .addKeyValue("appStore", hasAscCredentials)
+                .addKeyValue("googlePlay", hasGpCredentials)
+                .log("Configuration");
+
+        if (isValidValue(checkpointFile) && !dryRun) {
+            journal = CheckpointJournal.open(Path.of(checkpointFile), resume, resumeMaxAge,
+                    "locales=" + parseLocales() + ",inAppPurchases=" + ascInAppPurchases);
+            if (journal.size() > 0) {
+                log.atInfo().addKeyValue("apps", journal.size())
+                        .log("Resuming: apps exported by an interrupted run are reused");
+            }
+        }
+
+        if (isValidValue(metricsDir) || isValidValue(jfrFile) || isValidValue(traceFile)
+                || isValidValue(summaryFile) || log.isDebugEnabled()) {
+            // Also collected for --jfr, --trace, --summary-file and --verbose, whose HTTP events, spans, request
+            // totals and logs come from the same decorators
+            metrics = new HttpMetrics();
         }
 
-        MetadataExporter exporter = new MetadataExporter(outputDir.toPath(), dryRun, verbose);
+        summary = new RunSummary();
+        summary.setStartedAt(Instant.now());
+        summary.setDryRun(dryRun);
+
+        long startNanos = System.nanoTime();
         int totalApps = 0;
+        boolean completed = false;
+        MetadataSink sink = createSink();
+        try {
+            long outputNanos;
+            try (MetadataExporter exporter = new MetadataExporter(sink)) {
+                // Process App Store Connect
+                if (hasAscCredentials) {
+                    try (Span span = Span.begin("store", Cassette.APP_STORE)) {
+                        totalApps += processAppStoreConnect(exporter);
+                    }
+                }
 
-        // Process App Store Connect
-        if (hasAscCredentials) {
-            totalApps += processAppStoreConnect(exporter);
-        }
+                // Process Google Play
+                if (hasGpCredentials) {
+                    try (Span span = Span.begin("store", Cassette.GOOGLE_PLAY)) {
+                        totalApps += processGooglePlay(exporter);
+                    }
+                }
+                // Closing the exporter flushes the sink: commits, archives and database transactions
+                outputNanos = System.nanoTime();
+            }
+            summary.getPhasesMs().put("output", elapsedMillis(outputNanos));
 
-        // Process Google Play
-        if (hasGpCredentials) {
-            totalApps += processGooglePlay(exporter);
+            if (journal != null) {
+                if (incomplete) {
+                    log.atWarn().addKeyValue("file", checkpointFile)
+                            .log("Some apps failed, keeping the checkpoint journal");
+                } else {
+                    journal.delete();
+                }
+            }
+            completed = true;
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            if (metrics != null && isValidValue(metricsDir)) {
+                writeMetrics();
+            }
+            if (isValidValue(summaryFile)) {
+                writeSummary(sink, totalApps, elapsedMillis(startNanos), completed);
+            }
         }
 
-        System.out.println("Done! Processed " + totalApps + " apps total.");
+        log.atInfo().addKeyValue("apps", totalApps).addKeyValue("durationMs", elapsedMillis(startNanos))
+                .log("Done! Processed {} apps total.", totalApps);
         return 0;
     }
 
     private int processAppStoreConnect(MetadataExporter exporter) {
         try {
-            String privateKey = resolveAscPrivateKey();
-            if (privateKey == null) {
-                System.err.println("Warning: App Store Connect private key not found, skipping.");
+            String privateKey = isReplay() ? null : resolveAscPrivateKey();
+            if (privateKey == null && !isReplay()) {
+                log.atWarn().addKeyValue("store", Cassette.APP_STORE)
+                        .log("App Store Connect private key not found, skipping");
                 return 0;
             }
 
-            AppStoreConnectService ascService = new AppStoreConnectService(ascIssuerId, ascKeyId, privateKey);
+            HttpResponseCache httpCache = isValidValue(httpCacheDir) ? new HttpResponseCache(Path.of(httpCacheDir)) : null;
+            UnaryOperator<HttpClient> httpClientDecorator = client -> {
+                HttpClient decorated = client;
+                if (cassette != null) {
+                    decorated = cassette.isReplay()
+                            ? new ReplayHttpClient(decorated, cassette, Cassette.APP_STORE)
+                            : new RecordingHttpClient(decorated, cassette, Cassette.APP_STORE);
+                }
+                if (metrics != null) {
+                    // Inside the cache, so only exchanges that reach the API (or the cassette) are measured
+                    decorated = new MetricsHttpClient(decorated, metrics, Cassette.APP_STORE);
+                }
+                if (httpCache != null) {
+                    decorated = new CachingHttpClient(decorated, httpCache, ascIssuerId + "/" + ascKeyId, httpCacheTtl);
+                }
+                return decorated;
+            };
+
+            AppStoreConnectService ascService = isReplay()
+                    ? AppStoreConnectService.withToken("replay", httpClientDecorator)
+                    : new AppStoreConnectService(ascIssuerId, ascKeyId, privateKey, httpClientDecorator);
+            ascService.setLocales(parseLocales());
+
+            log.atInfo().addKeyValue("store", Cassette.APP_STORE).log("Fetching apps from App Store Connect");
+            AppSelector selector = AppSelector.of(splitList(ascInclude), splitList(ascExclude));
+            long listNanos = System.nanoTime();
+            List<AppStoreConnectService.AppProbe> apps;
+            try (Span span = Span.begin("list", Cassette.APP_STORE)) {
+                apps = ascService.prefetchApps(selector);
+                span.arg("apps", apps.size());
+            }
+            summary.getPhasesMs().put("appstore.list", elapsedMillis(listNanos));
+            log.atInfo()
+                    .addKeyValue("store", Cassette.APP_STORE)
+                    .addKeyValue("apps", apps.size())
+                    .addKeyValue("durationMs", elapsedMillis(listNanos))
+                    .log(selector.isAll() ? "Found apps" : "Selected apps");
+
+            ExportStateStore stateStore = isValidValue(stateFile) ? new ExportStateStore(Path.of(stateFile)) : null;
+            ExportState previousState = stateStore != null ? stateStore.load() : new ExportState();
+            boolean fullRefresh = stateStore == null || previousState.getApps().isEmpty()
+                    || !Objects.equals(previousState.getLocales(), parseLocales())
+                    || (fullRefreshEvery > 0 && previousState.getRunsSinceFullRefresh() + 1 >= fullRefreshEvery);
+            if (stateStore != null) {
+                log.info(fullRefresh
+                        ? "Full refresh: fetching all apps"
+                        : "Incremental run: fetching apps with changed versions only");
+            }
+
+            ExportState nextState = new ExportState();
+            nextState.setRunsSinceFullRefresh(fullRefresh ? 0 : previousState.getRunsSinceFullRefresh() + 1);
+            nextState.setLocales(parseLocales());
+            int unchanged = 0;
+            RunSummary.StoreSummary storeSummary = summary.store(Cassette.APP_STORE);
+            if (isValidValue(assetsDir)) {
+                // Replayed runs stay offline: the images are not part of the cassette
+                assetExporter = new AssetExporter(Path.of(assetsDir), assetsConcurrency, dryRun || isReplay());
+            }
+            if (isValidValue(reviewsDir)) {
+                Instant since = isValidValue(reviewsSince)
+                        ? LocalDate.parse(reviewsSince).atStartOfDay(ZoneOffset.UTC).toInstant()
+                        : null;
+                reviewExporter = new ReviewExporter(Path.of(reviewsDir), since, reviewsMaxPages, dryRun);
+            }
+            if (ascInAppPurchases) {
+                productExecutor = Executors.newFixedThreadPool(Math.max(1, ascConcurrency));
+            }
+            long appsNanos = System.nanoTime();
+
+            for (var probe : apps) {
+                String bundleId = probe.getBundleId();
+                String appId = probe.getAppId();
+                long appNanos = System.nanoTime();
+                try (Span span = Span.begin("app", bundleId)) {
+                    var watermark = probe.toWatermark();
+                    var previous = previousState.getApps().get(appId);
+
+                    AppExportEvent event = new AppExportEvent();
+                    event.begin();
+                    AppMetadata appMetadata;
+                    AppMetadata checkpointed = checkpointed("appstore", appId);
+                    if (checkpointed != null) {
+                        appMetadata = checkpointed;
+                        event.source = "checkpoint";
+                    } else if (!fullRefresh && previous != null && watermark.equals(previous.getWatermark())
+                            && previous.getMetadata() != null
+                            && bundleId.equals(previous.getMetadata().getBundleId())) {
+                        appMetadata = previous.getMetadata();
+                        unchanged++;
+                        event.source = "state";
+                    } else {
+                        appMetadata = ascService.fetchAppMetadata(probe);
+                        event.source = "api";
+                    }
+                    if (productExecutor != null && checkpointed == null) {
+                        // Also for unchanged apps: products change independently of the version
+                        fetchInAppPurchases(ascService, appMetadata);
+                    }
+                    nextState.getApps().put(appId, new ExportState.AppState(watermark, appMetadata));
+                    try (Span exportSpan = Span.begin("export", bundleId)) {
+                        exporter.export(appMetadata, "appstore");
+                    }
+                    // Screenshots belong to the live version, so an unchanged app keeps its assets
+                    if (assetExporter != null && checkpointed == null && !("state".equals(event.source)
+                            && assetExporter.isExported(Cassette.APP_STORE, bundleId,
+                            appMetadata.getCurrentVersion()))) {
+                        exportAssets(ascService, probe);
+                    }
+                    if (reviewExporter != null) {
+                        // Also for unchanged and resumed apps: new reviews do not change the version
+                        exportReviews(ascService, probe);
+                    }
+                    if (checkpointed == null) {
+                        checkpoint("appstore", appMetadata);
+                    }
+                    event.store = "appstore";
+                    event.appId = appId;
+                    event.commit();
+                    span.arg("source", event.source);
+                    countExported(storeSummary, event.source);
+                    logExported(Cassette.APP_STORE, bundleId, event.source, elapsedMillis(appNanos));
+                }
+            }
 
-            System.out.println("Fetching apps from App Store Connect...");
-            var apps = ascService.fetchAllApps();
-            System.out.println("Found " + apps.size() + " apps in App Store Connect");
+            summary.getPhasesMs().put("appstore.apps", elapsedMillis(appsNanos));
+            if (assetExporter != null) {
+                summary.setAssets(assetExporter.getCounts());
+                log.atInfo()
+                        .addKeyValue("store", Cassette.APP_STORE)
+                        .addKeyValue("downloaded", assetExporter.getCounts().getDownloaded())
+                        .addKeyValue("reused", assetExporter.getCounts().getReused())
+                        .addKeyValue("failed", assetExporter.getCounts().getFailed())
+                        .log("Exported assets");
+            }
+            if (reviewExporter != null) {
+                summary.setReviewsAppended(reviewExporter.getAppended());
+                log.atInfo()
+                        .addKeyValue("store", Cassette.APP_STORE)
+                        .addKeyValue("reviews", reviewExporter.getAppended())
+                        .log("Exported new reviews");
+            }
 
-            for (var app : apps) {
-                String bundleId = app.getAttributes().getBundleId();
-                String appId = app.getId();
-                System.out.println("Processing (App Store): " + bundleId);
+            if (stateStore != null) {
+                log.atInfo()
+                        .addKeyValue("store", Cassette.APP_STORE)
+                        .addKeyValue("refetched", apps.size() - unchanged)
+                        .addKeyValue("unchanged", unchanged)
+                        .log("Re-fetched apps with changed versions");
+                if (dryRun) {
+                    log.atInfo().addKeyValue("file", stateFile).log("[DRY RUN] Would write state");
+                } else {
+                    stateStore.save(nextState);
+                }
+            }
 
-                var appMetadata = ascService.fetchAppMetadata(appId, bundleId);
-                exporter.export(appMetadata, "appstore");
+            if (httpCache != null) {
+                log.info("HTTP cache: {}", httpCache.summary());
             }
 
             return apps.size();
 
         } catch (Exception e) {
-            System.err.println("Error processing App Store Connect: " + e.getMessage());
-            if (verbose) {
-                e.printStackTrace();
-            }
+            incomplete = true;
+            summary.store(Cassette.APP_STORE).setError(e.getMessage());
+            logError(log.atError().addKeyValue("store", Cassette.APP_STORE), e,
+                    "Error processing App Store Connect");
             return 0;
+        } finally {
+            if (productExecutor != null) {
+                productExecutor.shutdownNow();
+            }
+            if (assetExporter != null) {
+                try {
+                    assetExporter.close();
+                } catch (IOException e) {
+                    log.atWarn().log("Failed to clean up asset objects: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the in-app purchases and subscriptions of an app to its metadata. On failure the products of
+     * the previous run, if any, are kept and the checkpoint journal is kept as well.
+     */
+    private void fetchInAppPurchases(AppStoreConnectService ascService, AppMetadata appMetadata) {
+        try {
+            ascService.fetchInAppPurchases(appMetadata, productExecutor);
+        } catch (ApiException e) {
+            incomplete = true;
+            logError(log.atWarn().addKeyValue("store", Cassette.APP_STORE)
+                    .addKeyValue("app", appMetadata.getBundleId()), e, "Failed to fetch in-app purchases");
+        }
+    }
+
+    /**
+     * Appends the reviews of an app created since the previous run. A failure is logged and keeps the
+     * checkpoint journal, but does not stop the export of the app's metadata; the reviews appended
+     * before the failure stay recorded in the review state.
+     */
+    private void exportReviews(AppStoreConnectService ascService, AppStoreConnectService.AppProbe probe) {
+        try {
+            reviewExporter.export(ascService, Cassette.APP_STORE, probe.getAppId(), probe.getBundleId());
+        } catch (ApiException | IOException e) {
+            incomplete = true;
+            logError(log.atWarn().addKeyValue("store", Cassette.APP_STORE).addKeyValue("app", probe.getBundleId()),
+                    e, "Failed to export reviews");
+        }
+    }
+
+    /**
+     * Lists the screenshots and previews of an app and downloads the changed ones. A failure is logged
+     * and keeps the checkpoint journal, but does not stop the export of the app's metadata.
+     */
+    private void exportAssets(AppStoreConnectService ascService, AppStoreConnectService.AppProbe probe) {
+        try {
+            assetExporter.export(Cassette.APP_STORE, ascService.fetchAppAssets(probe));
+        } catch (ApiException | IOException e) {
+            incomplete = true;
+            logError(log.atWarn().addKeyValue("store", Cassette.APP_STORE).addKeyValue("app", probe.getBundleId()),
+                    e, "Failed to export assets");
         }
     }
 
     private int processGooglePlay(MetadataExporter exporter) {
         try {
-            String serviceAccount = resolveGpServiceAccount();
-            if (serviceAccount == null) {
-                System.err.println("Warning: Google Play service account not found, skipping.");
+            String serviceAccount = isReplay() ? null : resolveGpServiceAccount();
+            if (serviceAccount == null && !isReplay()) {
+                log.atWarn().addKeyValue("store", Cassette.GOOGLE_PLAY)
+                        .log("Google Play service account not found, skipping");
                 return 0;
             }
 
             List<String> packageNames = parsePackageNames();
             if (packageNames.isEmpty()) {
-                System.err.println("Warning: No Google Play package names provided, skipping.");
+                log.atWarn().addKeyValue("store", Cassette.GOOGLE_PLAY)
+                        .log("No Google Play package names provided, skipping");
                 return 0;
             }
 
-            GooglePlayService gpService = new GooglePlayService(serviceAccount);
+            UnaryOperator<HttpTransport> transportDecorator;
+            if (isReplay()) {
+                transportDecorator = transport -> new ReplayHttpTransport(cassette, Cassette.GOOGLE_PLAY);
+            } else if (cassette != null) {
+                transportDecorator = transport -> new RecordingHttpTransport(transport, cassette, Cassette.GOOGLE_PLAY);
+            } else {
+                transportDecorator = UnaryOperator.identity();
+            }
+            if (metrics != null) {
+                UnaryOperator<HttpTransport> sourceDecorator = transportDecorator;
+                transportDecorator = transport -> new MetricsHttpTransport(sourceDecorator.apply(transport), metrics,
+                        Cassette.GOOGLE_PLAY);
+            }
+
+            try (GooglePlayService gpService = isReplay()
+                    ? GooglePlayService.withToken("replay", transportDecorator, gpConcurrency)
+                    : new GooglePlayService(loadGpCredentials(serviceAccount), transportDecorator, gpConcurrency)) {
 
-            System.out.println("Processing " + packageNames.size() + " apps from Google Play...");
+                gpService.setLocales(parseLocales());
+                log.atInfo().addKeyValue("store", Cassette.GOOGLE_PLAY).addKeyValue("apps", packageNames.size())
+                        .log("Processing apps from Google Play");
+                RunSummary.StoreSummary storeSummary = summary.store(Cassette.GOOGLE_PLAY);
+                long appsNanos = System.nanoTime();
 
-            int processed = 0;
-            for (String packageName : packageNames) {
+                if (gpBatch) {
+                    List<String> pending = packageNames.stream()
+                            .filter(packageName -> checkpointed("googleplay", packageName) == null)
+                            .toList();
+                    GooglePlayService.BatchResult result;
+                    try (Span span = Span.begin("app", "batch")) {
+                        span.arg("apps", pending.size());
+                        result = gpService.fetchAppMetadataBatch(pending);
+                    }
+                    int processed = 0;
+                    for (String packageName : packageNames) {
+                        AppMetadata checkpointed = checkpointed("googleplay", packageName);
+                        AppMetadata appMetadata = checkpointed != null
+                                ? checkpointed : result.getMetadata().get(packageName);
+                        if (appMetadata == null) {
+                            continue;
+                        }
+                        try (Span span = Span.begin("export", packageName)) {
+                            exporter.export(appMetadata, "googleplay");
+                        }
+                        if (checkpointed == null) {
+                            checkpoint("googleplay", appMetadata);
+                        }
+                        String source = checkpointed != null ? "checkpoint" : "api";
+                        logExported(Cassette.GOOGLE_PLAY, packageName, source, null);
+                        countExported(storeSummary, source);
+                        processed++;
+                    }
+                    if (!result.getErrors().isEmpty()) {
+                        incomplete = true;
+                    }
+                    storeSummary.setFailed(result.getErrors().size());
+                    summary.getPhasesMs().put("googleplay.apps", elapsedMillis(appsNanos));
+                    result.getErrors().forEach((packageName, error) -> log.atError()
+                            .addKeyValue("store", Cassette.GOOGLE_PLAY)
+                            .addKeyValue("app", packageName)
+                            .log("Error processing app: {}", error));
+                    return processed;
+                }
+
+                // Packages are fetched concurrently but exported in input order, so the output stays deterministic
+                ExecutorService packageExecutor = Executors.newFixedThreadPool(Math.max(1, gpConcurrency));
                 try {
-                    System.out.println("Processing (Google Play): " + packageName);
-                    var appMetadata = gpService.fetchAppMetadata(packageName);
-                    exporter.export(appMetadata, "googleplay");
-                    processed++;
-                } catch (Exception e) {
-                    System.err.println("Error processing " + packageName + ": " + e.getMessage());
-                    if (verbose) {
-                        e.printStackTrace();
+                    List<Future<FetchedApp>> results = new ArrayList<>();
+                    for (String packageName : packageNames) {
+                        AppMetadata checkpointed = checkpointed("googleplay", packageName);
+                        results.add(checkpointed != null
+                                ? CompletableFuture.completedFuture(new FetchedApp(checkpointed, "checkpoint", null))
+                                : packageExecutor.submit(() -> {
+                                    // Fetches run on worker threads, so for Google Play the span covers the fetch
+                                    AppExportEvent event = new AppExportEvent();
+                                    event.begin();
+                                    long appNanos = System.nanoTime();
+                                    AppMetadata appMetadata;
+                                    try (Span span = Span.begin("app", packageName)) {
+                                        appMetadata = gpService.fetchAppMetadata(packageName);
+                                        span.arg("source", "api");
+                                    }
+                                    event.store = "googleplay";
+                                    event.appId = packageName;
+                                    event.source = "api";
+                                    event.commit();
+                                    return new FetchedApp(appMetadata, event.source, elapsedMillis(appNanos));
+                                }));
                     }
+
+                    int processed = 0;
+                    for (int i = 0; i < packageNames.size(); i++) {
+                        String packageName = packageNames.get(i);
+                        try {
+                            var fetched = results.get(i).get();
+                            try (Span span = Span.begin("export", packageName)) {
+                                exporter.export(fetched.metadata(), "googleplay");
+                            }
+                            if (checkpointed("googleplay", packageName) == null) {
+                                checkpoint("googleplay", fetched.metadata());
+                            }
+                            logExported(Cassette.GOOGLE_PLAY, packageName, fetched.source(), fetched.durationMs());
+                            countExported(storeSummary, fetched.source());
+                            processed++;
+                        } catch (Exception e) {
+                            incomplete = true;
+                            storeSummary.setFailed(storeSummary.getFailed() + 1);
+                            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+                            logError(log.atError()
+                                    .addKeyValue("store", Cassette.GOOGLE_PLAY)
+                                    .addKeyValue("app", packageName), cause, "Error processing app");
+                        }
+                    }
+
+                    summary.getPhasesMs().put("googleplay.apps", elapsedMillis(appsNanos));
+                    return processed;
+                } finally {
+                    packageExecutor.shutdownNow();
                 }
             }
 
-            return processed;
-
         } catch (Exception e) {
-            System.err.println("Error processing Google Play: " + e.getMessage());
-            if (verbose) {
-                e.printStackTrace();
-            }
+            incomplete = true;
+            summary.store(Cassette.GOOGLE_PLAY).setError(e.getMessage());
+            logError(log.atError().addKeyValue("store", Cassette.GOOGLE_PLAY), e, "Error processing Google Play");
             return 0;
         }
     }
 
+    private MetadataSink createSink() throws IOException {
+        return switch (format) {
+            case DIRECTORY -> new DirectoryMetadataSink(outputDir.toPath(), layout, dryRun);
+            case NDJSON -> new NdjsonMetadataSink(openOutputStream("metadata.ndjson"));
+            case ARCHIVE -> {
+                var archiveFormat = outputFile != null && !"-".equals(outputFile)
+                        ? ArchiveMetadataSink.Format.fromFileName(outputFile)
+                        : ArchiveMetadataSink.Format.TAR_GZ;
+                yield new ArchiveMetadataSink(openOutputStream("metadata.tar.gz"), archiveFormat, layout);
+            }
+            case GIT -> new GitMetadataSink(outputDir.toPath(), layout,
+                    commitMessage != null ? commitMessage : defaultCommitMessage(), dryRun);
+            case SNAPSHOT -> new SnapshotMetadataSink(new SnapshotStore(outputDir.toPath()), layout, dryRun);
+            case HISTORY_DB -> new HistoryDatabaseSink(outputFile != null
+                    ? outputFile : new File(outputDir, "metadata-history").getPath(), parseLocales(), dryRun);
+            case PARQUET -> new ParquetMetadataSink(outputDir.toPath(), LocalDate.now(ZoneOffset.UTC), dryRun);
+        };
+    }
+
+    private String defaultCommitMessage() {
+        return "Update store metadata " + DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss 'UTC'")
+                .withZone(ZoneOffset.UTC)
+                .format(Instant.now());
+    }
+
+    private OutputStream openOutputStream(String defaultFileName) throws IOException {
+        if ("-".equals(outputFile)) {
+            // Records own stdout; logs already go to stderr, and so does anything else printed to stdout
+            OutputStream stdout = new FileOutputStream(FileDescriptor.out);
+            System.setOut(System.err);
+            return stdout;
+        }
+
+        File file = outputFile != null ? new File(outputFile) : new File(outputDir, defaultFileName);
+        if (dryRun) {
+            log.atInfo().addKeyValue("file", file).log("[DRY RUN] Would write");
+            return OutputStream.nullOutputStream();
+        }
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+        }
+        return new FileOutputStream(file);
+    }
+
+    private GoogleCredentials loadGpCredentials(String serviceAccount) throws IOException {
+        GoogleCredentials credentials = GooglePlayService.loadCredentials(serviceAccount);
+        return isValidValue(gpTokenCache) ? new GoogleTokenCache(Path.of(gpTokenCache)).attach(credentials) : credentials;
+    }
+
+    private void writeMetrics() throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("HTTP metrics (slowest operations first):");
+            metrics.summary().forEach(line -> log.debug("  {}", line));
+        }
+        if (dryRun) {
+            log.atInfo().addKeyValue("dir", metricsDir).log("[DRY RUN] Would write HTTP metrics");
+            return;
+        }
+        metrics.write(Path.of(metricsDir));
+        log.atInfo().addKeyValue("dir", metricsDir).log("HTTP metrics written");
+    }
+
+    private void writeSummary(MetadataSink sink, int totalApps, long durationMs, boolean completed)
+            throws IOException {
+        summary.setFinishedAt(Instant.now());
+        summary.setDurationMs(durationMs);
+        summary.setStatus(!completed ? "failed" : incomplete ? "partial" : "success");
+        summary.setAppsTotal(totalApps);
+        if (sink instanceof FileTreeSink fileTreeSink) {
+            RunSummary.FileCounts files = new RunSummary.FileCounts();
+            files.setWritten(fileTreeSink.getFilesWritten());
+            files.setSkipped(fileTreeSink.getFilesSkipped());
+            summary.setFiles(files);
+        }
+        if (metrics != null) {
+            summary.setHttp(metrics.totals());
+        }
+
+        Path file = Path.of(summaryFile);
+        if (file.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+        }
+        MetadataDocuments.createObjectMapper().writeValue(file.toFile(), summary);
+        log.atInfo().addKeyValue("file", file).log("Run summary written");
+    }
+
+    private static void countExported(RunSummary.StoreSummary storeSummary, String source) {
+        storeSummary.setExported(storeSummary.getExported() + 1);
+        switch (source) {
+            case "state" -> storeSummary.setUnchanged(storeSummary.getUnchanged() + 1);
+            case "checkpoint" -> storeSummary.setResumed(storeSummary.getResumed() + 1);
+            default -> storeSummary.setFetched(storeSummary.getFetched() + 1);
+        }
+    }
+
+    private static void logExported(String store, String appId, String source, Long durationMs) {
+        var event = log.atInfo()
+                .addKeyValue("store", store)
+                .addKeyValue("app", appId)
+                .addKeyValue("source", source);
+        if (durationMs != null) {
+            event = event.addKeyValue("durationMs", durationMs);
+        }
+        event.log("Exported app");
+    }
+
+    /**
+     * Logs the error message; the stack trace is only included at debug level.
+     */
+    private static void logError(LoggingEventBuilder event, Throwable error, String message) {
+        if (log.isDebugEnabled()) {
+            event = event.setCause(error);
+        }
+        event.log(message + ": {}", error.getMessage());
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    private AppMetadata checkpointed(String store, String appId) {
+        return journal != null ? journal.completed(store, appId) : null;
+    }
+
+    private void checkpoint(String store, AppMetadata appMetadata) throws IOException {
+        if (journal != null) {
+            journal.record(store, appMetadata);
+        }
+    }
+
+    /**
+     * A Google Play app fetched on a worker thread, with how it was obtained and how long the fetch took.
+     */
+    private record FetchedApp(AppMetadata metadata, String source, Long durationMs) {
+    }
+
+    private boolean isReplay() {
+        return cassette != null && cassette.isReplay();
+    }
+
     private boolean hasAppStoreConnectCredentials() {
         return isValidValue(ascIssuerId) && isValidValue(ascKeyId) 
                 && (isValidValue(ascPrivateKeyContent) || (ascPrivateKeyFile != null && ascPrivateKeyFile.exists()));
@@ -232,6 +993,27 @@ public class MetadataExporterApp implements Callable<Integer> {
         return null;
     }
 
+    private List<String> splitList(String value) {
+        if (!isValidValue(value)) {
+            return List.of();
+        }
+        return Stream.of(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+    }
+
+    /**
+     * Returns the selected locales, sorted, or {@code null} when all locales are exported.
+     */
+    private List<String> parseLocales() {
+        List<String> selected = splitList(locales).stream()
+                .distinct()
+                .sorted()
+                .toList();
+        return selected.isEmpty() ? null : selected;
+    }
+
     private List<String> parsePackageNames() throws Exception {
         // Priority: 1) CLI/env comma-separated, 2) explicit file, 3) default file
         if (isValidValue(gpPackageNames)) {
@@ -252,9 +1034,7 @@ public class MetadataExporterApp implements Callable<Integer> {
         }
 
         if (packageFile != null && packageFile.exists()) {
-            if (verbose) {
-                System.out.println("Reading package names from: " + packageFile.getAbsolutePath());
-            }
+            log.atDebug().addKeyValue("file", packageFile.getAbsolutePath()).log("Reading package names");
             return Files.readAllLines(packageFile.toPath()).stream()
                     .map(String::trim)
                     .filter(s -> !s.isEmpty() && !s.startsWith("#"))
@@ -0,0 +1,76 @@
+package com.adguard.stores.metadata.exporter;
+
+import com.adguard.stores.metadata.exporter.sink.SnapshotStore;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+import picocli.CommandLine.Parameters;
+import picocli.CommandLine.ScopeType;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeSet;
+
+@Command(
+        name = "snapshot",
+        mixinStandardHelpOptions = true,
+        description = "Inspect a snapshot store written with --format snapshot"
+)
+public class SnapshotCommand {
+
+    @Option(names = {"--store-dir", "-s"}, description = "Snapshot store directory",
+            defaultValue = "${OUTPUT_DIR:-.}", scope = ScopeType.INHERIT)
+    private File storeDir;
+
+    @Command(name = "list", description = "List stored runs")
+    public int list() throws Exception {
+        SnapshotStore store = new SnapshotStore(storeDir.toPath());
+        for (String runId : store.listRuns()) {
+            System.out.println(runId);
+        }
+        return 0;
+    }
+
+    @Command(name = "materialize", description = "Restore the directory tree of a run")
+    public int materialize(
+            @Parameters(paramLabel = "RUN", description = "Run id or 'latest'") String runId,
+            @Parameters(paramLabel = "TARGET_DIR", description = "Directory to write the files to") File targetDir)
+            throws Exception {
+        SnapshotStore store = new SnapshotStore(storeDir.toPath());
+        SortedMap<String, String> files = store.readManifest(runId);
+        for (Map.Entry<String, String> file : files.entrySet()) {
+            Path target = targetDir.toPath().resolve(file.getKey());
+            Files.createDirectories(target.getParent());
+            Files.write(target, store.readObject(file.getValue()));
+        }
+        System.out.println("Materialized " + files.size() + " files into " + targetDir.getAbsolutePath());
+        return 0;
+    }
+
+    @Command(name = "diff", description = "List files added (A), modified (M) or deleted (D) between two runs")
+    public int diff(
+            @Parameters(paramLabel = "FROM_RUN", description = "Run id") String fromRunId,
+            @Parameters(paramLabel = "TO_RUN", description = "Run id or 'latest'") String toRunId)
+            throws Exception {
+        SnapshotStore store = new SnapshotStore(storeDir.toPath());
+        SortedMap<String, String> from = store.readManifest(fromRunId);
+        SortedMap<String, String> to = store.readManifest(toRunId);
+
+        TreeSet<String> paths = new TreeSet<>(from.keySet());
+        paths.addAll(to.keySet());
+        for (String path : paths) {
+            String fromHash = from.get(path);
+            String toHash = to.get(path);
+            if (fromHash == null) {
+                System.out.println("A " + path);
+            } else if (toHash == null) {
+                System.out.println("D " + path);
+            } else if (!fromHash.equals(toHash)) {
+                System.out.println("M " + path);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.adguard.stores.metadata.exporter;
+
+import com.adguard.stores.metadata.exporter.sink.PackedLayoutReader;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Parameters;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+@Command(
+        name = "unpack",
+        mixinStandardHelpOptions = true,
+        description = "Expand output written with --layout packed into the regular directory tree"
+)
+public class UnpackCommand implements Callable<Integer> {
+
+    @Parameters(index = "0", paramLabel = "PACKED_DIR", description = "Directory written with --layout packed")
+    private File packedDir;
+
+    @Parameters(index = "1", paramLabel = "TARGET_DIR", description = "Directory to write the expanded tree to")
+    private File targetDir;
+
+    @Override
+    public Integer call() throws Exception {
+        int apps = new PackedLayoutReader().expand(packedDir.toPath(), targetDir.toPath());
+        System.out.println("Expanded " + apps + " apps into " + targetDir.getAbsolutePath());
+        return 0;
+    }
+}
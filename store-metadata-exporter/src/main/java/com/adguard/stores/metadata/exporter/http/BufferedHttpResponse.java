@@ -0,0 +1,120 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+
+/**
+ * {@link HttpResponse} whose body was already read into memory, e.g. from a cache or a recording,
+ * and converted with the caller's {@link HttpResponse.BodyHandler}.
+ */
+public class BufferedHttpResponse<T> implements HttpResponse<T> {
+
+    private final HttpRequest request;
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final T body;
+
+    private BufferedHttpResponse(HttpRequest request, int statusCode, HttpHeaders headers, T body) {
+        this.request = request;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    public static <T> HttpResponse<T> of(HttpRequest request, int statusCode, HttpHeaders headers, byte[] content,
+                                         BodyHandler<T> bodyHandler) throws IOException, InterruptedException {
+        ResponseInfo responseInfo = new ResponseInfo() {
+            @Override
+            public int statusCode() {
+                return statusCode;
+            }
+
+            @Override
+            public HttpHeaders headers() {
+                return headers;
+            }
+
+            @Override
+            public HttpClient.Version version() {
+                return HttpClient.Version.HTTP_1_1;
+            }
+        };
+
+        BodySubscriber<T> subscriber = bodyHandler.apply(responseInfo);
+        subscriber.onSubscribe(new Flow.Subscription() {
+            private boolean done;
+
+            @Override
+            public void request(long n) {
+                if (!done && n > 0) {
+                    done = true;
+                    if (content.length > 0) {
+                        subscriber.onNext(List.of(ByteBuffer.wrap(content)));
+                    }
+                    subscriber.onComplete();
+                }
+            }
+
+            @Override
+            public void cancel() {
+                done = true;
+            }
+        });
+
+        try {
+            return new BufferedHttpResponse<>(request, statusCode, headers, subscriber.getBody().toCompletableFuture().get());
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public int statusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public HttpRequest request() {
+        return request;
+    }
+
+    @Override
+    public Optional<HttpResponse<T>> previousResponse() {
+        return Optional.empty();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return headers;
+    }
+
+    @Override
+    public T body() {
+        return body;
+    }
+
+    @Override
+    public Optional<SSLSession> sslSession() {
+        return Optional.empty();
+    }
+
+    @Override
+    public URI uri() {
+        return request.uri();
+    }
+
+    @Override
+    public HttpClient.Version version() {
+        return HttpClient.Version.HTTP_1_1;
+    }
+}
@@ -0,0 +1,120 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Google HTTP client response whose content was already read into memory.
+ */
+class BufferedLowLevelHttpResponse extends LowLevelHttpResponse {
+
+    private final int statusCode;
+    private final List<String> headerNames = new ArrayList<>();
+    private final List<String> headerValues = new ArrayList<>();
+    private final byte[] content;
+
+    BufferedLowLevelHttpResponse(int statusCode, Map<String, List<String>> headers, byte[] content) {
+        this.statusCode = statusCode;
+        this.content = content;
+        headers.forEach((name, values) -> values.forEach(value -> {
+            headerNames.add(name);
+            headerValues.add(value);
+        }));
+    }
+
+    /**
+     * Reads the content and headers of a response and disconnects it.
+     */
+    static BufferedLowLevelHttpResponse read(LowLevelHttpResponse response) throws IOException {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        try (InputStream in = response.getContent()) {
+            byte[] content = in == null ? new byte[0] : in.readAllBytes();
+            for (int i = 0; i < response.getHeaderCount(); i++) {
+                headers.computeIfAbsent(response.getHeaderName(i), key -> new ArrayList<>())
+                        .add(response.getHeaderValue(i));
+            }
+            return new BufferedLowLevelHttpResponse(response.getStatusCode(), headers, content);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    Map<String, List<String>> getHeaders() {
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        for (int i = 0; i < headerNames.size(); i++) {
+            headers.computeIfAbsent(headerNames.get(i), key -> new ArrayList<>()).add(headerValues.get(i));
+        }
+        return headers;
+    }
+
+    byte[] getContentBytes() {
+        return content;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ByteArrayInputStream(content);
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return header("content-encoding");
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.length;
+    }
+
+    @Override
+    public String getContentType() {
+        return header("content-type");
+    }
+
+    @Override
+    public String getStatusLine() {
+        return "HTTP/1.1 " + statusCode;
+    }
+
+    @Override
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    @Override
+    public String getReasonPhrase() {
+        return null;
+    }
+
+    @Override
+    public int getHeaderCount() {
+        return headerNames.size();
+    }
+
+    @Override
+    public String getHeaderName(int index) {
+        return headerNames.get(index);
+    }
+
+    @Override
+    public String getHeaderValue(int index) {
+        return headerValues.get(index);
+    }
+
+    private String header(String name) {
+        for (int i = 0; i < headerNames.size(); i++) {
+            if (headerNames.get(i).toLowerCase(Locale.ROOT).equals(name)) {
+                return headerValues.get(i);
+            }
+        }
+        return null;
+    }
+}
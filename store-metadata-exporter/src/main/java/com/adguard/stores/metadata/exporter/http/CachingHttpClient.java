@@ -0,0 +1,157 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link HttpClient} that serves GET requests from an {@link HttpResponseCache}.
+ * <p>
+ * Successful responses are stored unless marked {@code Cache-Control: no-store}. A cached response is
+ * served without a request while it is fresh: for {@code max-age} seconds if the server sent it,
+ * otherwise for the configured TTL if the response has no validators. Stale responses with an
+ * {@code ETag} or {@code Last-Modified} are revalidated with a conditional request, and a
+ * {@code 304 Not Modified} is answered from the cache.
+ */
+public class CachingHttpClient extends DelegatingHttpClient {
+
+    private static final Set<String> STORED_HEADERS = Set.of(
+            "cache-control", "content-type", "etag", "last-modified");
+
+    private final HttpResponseCache cache;
+    private final String authScope;
+    private final Duration ttl;
+
+    /**
+     * @param authScope identifies the credentials, so different accounts never share entries
+     * @param ttl       freshness of responses without validators or {@code max-age}
+     */
+    public CachingHttpClient(HttpClient delegate, HttpResponseCache cache, String authScope, Duration ttl) {
+        super(delegate);
+        this.cache = cache;
+        this.authScope = authScope;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        if (!"GET".equals(request.method())) {
+            return delegate.send(request, responseBodyHandler);
+        }
+
+        String key = HttpResponseCache.key(request.method(), request.uri().toString(), authScope);
+        HttpResponseCache.Entry entry = cache.get(key);
+
+        if (entry != null && isFresh(entry)) {
+            cache.recordHit(entry.body.length, false);
+            return toResponse(request, entry, responseBodyHandler);
+        }
+
+        HttpRequest.Builder conditionalRequest = HttpRequest.newBuilder(request, (name, value) -> true);
+        boolean conditional = false;
+        if (entry != null) {
+            Optional<String> etag = firstHeader(entry, "etag");
+            Optional<String> lastModified = firstHeader(entry, "last-modified");
+            if (etag.isPresent()) {
+                conditionalRequest.setHeader("If-None-Match", etag.get());
+                conditional = true;
+            }
+            if (lastModified.isPresent()) {
+                conditionalRequest.setHeader("If-Modified-Since", lastModified.get());
+                conditional = true;
+            }
+        }
+
+        HttpResponse<byte[]> response = delegate.send(conditional ? conditionalRequest.build() : request,
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        if (conditional && response.statusCode() == 304) {
+            cache.recordHit(entry.body.length, true);
+            // A 304 may carry updated cache headers
+            entry.headers.putAll(storedHeaders(response.headers()));
+            entry.storedAt = System.currentTimeMillis();
+            cache.put(key, entry);
+            return toResponse(request, entry, responseBodyHandler);
+        }
+
+        cache.recordMiss();
+        if (response.statusCode() == 200 && !cacheControl(response.headers().allValues("cache-control"))
+                .containsKey("no-store")) {
+            HttpResponseCache.Entry newEntry = new HttpResponseCache.Entry();
+            newEntry.uri = request.uri().toString();
+            newEntry.storedAt = System.currentTimeMillis();
+            newEntry.statusCode = response.statusCode();
+            newEntry.headers = storedHeaders(response.headers());
+            newEntry.body = response.body();
+            cache.put(key, newEntry);
+        }
+        return BufferedHttpResponse.of(request, response.statusCode(), response.headers(), response.body(),
+                responseBodyHandler);
+    }
+
+    private boolean isFresh(HttpResponseCache.Entry entry) {
+        Map<String, String> cacheControl = cacheControl(entry.headers.getOrDefault("cache-control", List.of()));
+        long maxAgeMillis;
+        if (cacheControl.containsKey("no-cache")) {
+            return false;
+        } else if (cacheControl.containsKey("max-age")) {
+            try {
+                maxAgeMillis = Long.parseLong(cacheControl.get("max-age")) * 1000;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+        } else if (entry.headers.containsKey("etag") || entry.headers.containsKey("last-modified")) {
+            return false;
+        } else {
+            maxAgeMillis = ttl.toMillis();
+        }
+        return System.currentTimeMillis() < entry.storedAt + maxAgeMillis;
+    }
+
+    private <T> HttpResponse<T> toResponse(HttpRequest request, HttpResponseCache.Entry entry,
+                                           HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        HttpHeaders headers = HttpHeaders.of(entry.headers, (name, value) -> true);
+        return BufferedHttpResponse.of(request, entry.statusCode, headers, entry.body, responseBodyHandler);
+    }
+
+    private static Optional<String> firstHeader(HttpResponseCache.Entry entry, String name) {
+        List<String> values = entry.headers.get(name);
+        return values == null || values.isEmpty() ? Optional.empty() : Optional.of(values.get(0));
+    }
+
+    private static Map<String, List<String>> storedHeaders(HttpHeaders headers) {
+        Map<String, List<String>> stored = new TreeMap<>();
+        headers.map().forEach((name, values) -> {
+            String lowerCaseName = name.toLowerCase(Locale.ROOT);
+            if (STORED_HEADERS.contains(lowerCaseName)) {
+                stored.put(lowerCaseName, values);
+            }
+        });
+        return stored;
+    }
+
+    private static Map<String, String> cacheControl(List<String> values) {
+        Map<String, String> directives = new TreeMap<>();
+        for (String value : values) {
+            for (String directive : value.split(",")) {
+                String[] parts = directive.trim().split("=", 2);
+                if (!parts[0].isEmpty()) {
+                    directives.put(parts[0].toLowerCase(Locale.ROOT),
+                            parts.length > 1 ? parts[1].replace("\"", "") : "");
+                }
+            }
+        }
+        return directives;
+    }
+}
@@ -0,0 +1,222 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Directory of recorded HTTP exchanges, one NDJSON file per channel ({@code appstore.ndjson},
+ * {@code googleplay.ndjson}).
+ * <p>
+ * In record mode exchanges are appended as they happen, with credentials removed from the headers.
+ * In replay mode exchanges are served by method and URL in recorded order; once all recordings of a
+ * request are used up the last one is served again.
+ */
+public class Cassette implements Closeable {
+
+    public static final String APP_STORE = "appstore";
+    public static final String GOOGLE_PLAY = "googleplay";
+
+    private static final String REDACTED = "REDACTED";
+    private static final Set<String> REDACTED_HEADERS = Set.of(
+            "authorization", "proxy-authorization", "cookie", "set-cookie", "x-goog-api-key");
+    // Header lines of the parts of a multipart body, e.g. the requests of a Google batch
+    private static final Pattern REDACTED_BODY_HEADERS = Pattern.compile(
+            "^(authorization|proxy-authorization|cookie|set-cookie|x-goog-api-key):[^\\r\\n]*",
+            Pattern.CASE_INSENSITIVE | Pattern.MULTILINE);
+    private static final Pattern BEARER_TOKEN = Pattern.compile("bearer\\s+(?!" + REDACTED + ")\\S",
+            Pattern.CASE_INSENSITIVE);
+
+    private final Path dir;
+    private final boolean replay;
+    private final boolean recordedLatency;
+    private final Duration fixedLatency;
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    private final Map<String, Writer> writers = new HashMap<>();
+    private final Map<String, Map<String, Deque<Exchange>>> recordings = new HashMap<>();
+
+    private Cassette(Path dir, boolean replay, boolean recordedLatency, Duration fixedLatency) {
+        this.dir = dir;
+        this.replay = replay;
+        this.recordedLatency = recordedLatency;
+        this.fixedLatency = fixedLatency;
+    }
+
+    /**
+     * Starts a new recording, replacing any previous recording in the directory.
+     */
+    public static Cassette record(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        return new Cassette(dir, false, false, Duration.ZERO);
+    }
+
+    /**
+     * @param latency {@code recorded} to wait as long as the recorded exchange took, or a fixed
+     *                delay in milliseconds
+     */
+    public static Cassette replay(Path dir, String latency) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Cassette directory not found: " + dir);
+        }
+        boolean recordedLatency = "recorded".equalsIgnoreCase(latency);
+        Duration fixedLatency = recordedLatency ? Duration.ZERO : Duration.ofMillis(Long.parseLong(latency));
+        return new Cassette(dir, true, recordedLatency, fixedLatency);
+    }
+
+    public boolean isReplay() {
+        return replay;
+    }
+
+    public boolean hasRecordings(String channel) {
+        return Files.exists(channelFile(channel));
+    }
+
+    /**
+     * Appends an exchange to the channel file. Refuses exchanges whose request body still carries a
+     * bearer token, so a recording never contains live credentials.
+     */
+    public synchronized void record(String channel, Exchange exchange) throws IOException {
+        if (exchange.requestBody != null && BEARER_TOKEN.matcher(exchange.requestBody).find()) {
+            throw new IOException("Refusing to record a bearer token in the request body of "
+                    + exchange.method + " " + exchange.uri);
+        }
+        Writer writer = writers.get(channel);
+        if (writer == null) {
+            writer = Files.newBufferedWriter(channelFile(channel), StandardCharsets.UTF_8);
+            writers.put(channel, writer);
+        }
+        writer.write(objectMapper.writeValueAsString(exchange));
+        writer.write('\n');
+        writer.flush();
+    }
+
+    /**
+     * Returns the next recorded exchange for the request, after the configured latency.
+     */
+    public Exchange replay(String channel, String method, String uri) throws IOException, InterruptedException {
+        Exchange exchange;
+        synchronized (this) {
+            Deque<Exchange> exchanges = loadRecordings(channel).get(method + " " + uri);
+            if (exchanges == null) {
+                throw new IOException("No recorded exchange for " + method + " " + uri + " in " + channelFile(channel));
+            }
+            exchange = exchanges.size() > 1 ? exchanges.poll() : exchanges.peek();
+        }
+
+        long delayMillis = recordedLatency ? exchange.durationMillis : fixedLatency.toMillis();
+        if (delayMillis > 0) {
+            Thread.sleep(delayMillis);
+        }
+        return exchange;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Writer writer : writers.values()) {
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    private Map<String, Deque<Exchange>> loadRecordings(String channel) throws IOException {
+        Map<String, Deque<Exchange>> channelRecordings = recordings.get(channel);
+        if (channelRecordings == null) {
+            channelRecordings = new HashMap<>();
+            if (Files.exists(channelFile(channel))) {
+                try (BufferedReader reader = Files.newBufferedReader(channelFile(channel), StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.isBlank()) {
+                            Exchange exchange = objectMapper.readValue(line, Exchange.class);
+                            channelRecordings.computeIfAbsent(exchange.method + " " + exchange.uri,
+                                    key -> new ArrayDeque<>()).add(exchange);
+                        }
+                    }
+                }
+            }
+            recordings.put(channel, channelRecordings);
+        }
+        return channelRecordings;
+    }
+
+    private Path channelFile(String channel) {
+        return dir.resolve(channel + ".ndjson");
+    }
+
+    /**
+     * @return a copy of the headers with credentials replaced
+     */
+    public static Map<String, List<String>> redact(Map<String, List<String>> headers) {
+        Map<String, List<String>> redacted = new LinkedHashMap<>();
+        headers.forEach((name, values) -> redacted.put(name,
+                REDACTED_HEADERS.contains(name.toLowerCase(Locale.ROOT)) ? List.of(REDACTED) : values));
+        return redacted;
+    }
+
+    /**
+     * @return the body with the credential header lines of its parts replaced, for multipart bodies
+     * such as Google batch requests, whose parts carry their own {@code Authorization} headers
+     */
+    public static String redactBody(String body) {
+        return REDACTED_BODY_HEADERS.matcher(body).replaceAll("$1: " + REDACTED);
+    }
+
+    /**
+     * One recorded request and its response. Bodies are stored as text when they are valid UTF-8 and
+     * as Base64 otherwise (e.g. gzip-encoded responses).
+     */
+    public static class Exchange {
+        public String method;
+        public String uri;
+        public Map<String, List<String>> requestHeaders;
+        public String requestBody;
+        public int statusCode;
+        public Map<String, List<String>> responseHeaders;
+        public String body;
+        public String bodyBase64;
+        public long durationMillis;
+
+        public void setResponseBody(byte[] content) {
+            try {
+                body = StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(content))
+                        .toString();
+                bodyBase64 = null;
+            } catch (CharacterCodingException e) {
+                body = null;
+                bodyBase64 = Base64.getEncoder().encodeToString(content);
+            }
+        }
+
+        public byte[] responseBody() {
+            if (bodyBase64 != null) {
+                return Base64.getDecoder().decode(bodyBase64);
+            }
+            return body == null ? new byte[0] : body.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
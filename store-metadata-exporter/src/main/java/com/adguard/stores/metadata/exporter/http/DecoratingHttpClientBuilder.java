@@ -0,0 +1,103 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
+
+/**
+ * {@link HttpClient.Builder} for {@code ApiClient.setHttpClientBuilder} that decorates the built client.
+ * <p>
+ * The generated API classes call {@code ApiClient.getHttpClient()} once per instance, which builds a new
+ * client every time. This builder builds and decorates the client once and hands out the same instance,
+ * so all API classes share one connection pool and one set of decorators.
+ */
+public class DecoratingHttpClientBuilder implements HttpClient.Builder {
+
+    private final HttpClient.Builder delegate;
+    private final UnaryOperator<HttpClient> decorator;
+    private HttpClient client;
+
+    public DecoratingHttpClientBuilder(HttpClient.Builder delegate, UnaryOperator<HttpClient> decorator) {
+        this.delegate = delegate;
+        this.decorator = decorator;
+    }
+
+    @Override
+    public synchronized HttpClient build() {
+        if (client == null) {
+            client = decorator.apply(delegate.build());
+        }
+        return client;
+    }
+
+    @Override
+    public HttpClient.Builder cookieHandler(CookieHandler cookieHandler) {
+        delegate.cookieHandler(cookieHandler);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder connectTimeout(Duration duration) {
+        delegate.connectTimeout(duration);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder sslContext(SSLContext sslContext) {
+        delegate.sslContext(sslContext);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder sslParameters(SSLParameters sslParameters) {
+        delegate.sslParameters(sslParameters);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder executor(Executor executor) {
+        delegate.executor(executor);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder followRedirects(HttpClient.Redirect policy) {
+        delegate.followRedirects(policy);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder version(HttpClient.Version version) {
+        delegate.version(version);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder priority(int priority) {
+        delegate.priority(priority);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder proxy(ProxySelector proxySelector) {
+        delegate.proxy(proxySelector);
+        return reset();
+    }
+
+    @Override
+    public HttpClient.Builder authenticator(Authenticator authenticator) {
+        delegate.authenticator(authenticator);
+        return reset();
+    }
+
+    private synchronized HttpClient.Builder reset() {
+        client = null;
+        return this;
+    }
+}
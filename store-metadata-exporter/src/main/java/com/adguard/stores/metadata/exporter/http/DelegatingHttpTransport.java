@@ -0,0 +1,99 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Google {@link HttpTransport} that forwards every request to a delegate transport. Subclasses wrap
+ * the requests in a {@link DelegatingRequest} to add behaviour around the exchanges made by the
+ * Google Play client.
+ */
+public abstract class DelegatingHttpTransport extends HttpTransport {
+
+    private static final Method BUILD_REQUEST;
+
+    static {
+        // HttpTransport.buildRequest(String, String) is protected, so a wrapping transport cannot call it
+        // on its delegate directly
+        try {
+            BUILD_REQUEST = HttpTransport.class.getDeclaredMethod("buildRequest", String.class, String.class);
+            BUILD_REQUEST.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    protected final HttpTransport delegate;
+
+    protected DelegatingHttpTransport(HttpTransport delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean supportsMethod(String method) throws IOException {
+        return delegate.supportsMethod(method);
+    }
+
+    @Override
+    public void shutdown() throws IOException {
+        delegate.shutdown();
+    }
+
+    protected LowLevelHttpRequest buildDelegateRequest(String method, String url) throws IOException {
+        try {
+            return (LowLevelHttpRequest) BUILD_REQUEST.invoke(delegate, method, url);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Request that forwards headers, timeouts and content to a request of the delegate transport.
+     */
+    protected static class DelegatingRequest extends LowLevelHttpRequest {
+
+        protected final String method;
+        protected final String url;
+        protected final LowLevelHttpRequest delegateRequest;
+
+        protected DelegatingRequest(String method, String url, LowLevelHttpRequest delegateRequest) {
+            this.method = method;
+            this.url = url;
+            this.delegateRequest = delegateRequest;
+        }
+
+        @Override
+        public void addHeader(String name, String value) throws IOException {
+            delegateRequest.addHeader(name, value);
+        }
+
+        @Override
+        public void setTimeout(int connectTimeout, int readTimeout) throws IOException {
+            delegateRequest.setTimeout(connectTimeout, readTimeout);
+        }
+
+        @Override
+        public void setWriteTimeout(int writeTimeout) throws IOException {
+            delegateRequest.setWriteTimeout(writeTimeout);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            delegateRequest.setStreamingContent(getStreamingContent());
+            delegateRequest.setContentType(getContentType());
+            delegateRequest.setContentEncoding(getContentEncoding());
+            delegateRequest.setContentLength(getContentLength());
+            return delegateRequest.execute();
+        }
+    }
+}
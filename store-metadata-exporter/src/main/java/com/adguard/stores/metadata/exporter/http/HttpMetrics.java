@@ -0,0 +1,355 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.adguard.stores.metadata.exporter.jfr.HttpRequestEvent;
+import com.adguard.stores.metadata.exporter.model.RunSummary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects per-operation statistics of the HTTP calls made to the store APIs: call count, latency
+ * percentiles, response bytes, status codes, retries and the rate limit headroom reported by the server.
+ * <p>
+ * An operation is the method and the path of a call with ids replaced by {@code {id}}, e.g.
+ * {@code GET /v1/appInfos/{id}/appInfoLocalizations}. A call is counted as a retry when the same
+ * method and URL failed before (I/O error, 429 or 5xx). Response bytes are counted as received,
+ * before decompression. Every call is also logged at debug level.
+ */
+public class HttpMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpMetrics.class);
+
+    // Status code recorded for calls that failed without a response
+    public static final int NO_RESPONSE = 0;
+
+    // "user-hour-lim:3600;user-hour-rem:3599;" as sent by App Store Connect
+    private static final Pattern APP_STORE_RATE_LIMIT = Pattern.compile("([\\w-]+)-(lim|rem):(\\d+)");
+
+    private static final double[] QUANTILES = {0.5, 0.95, 0.99};
+
+    private final Instant startedAt = Instant.now();
+    private final Map<String, Operation> operations = new TreeMap<>();
+    private final Map<String, RateLimit> rateLimits = new TreeMap<>();
+    private final Set<String> failedCalls = new HashSet<>();
+
+    public synchronized void record(String channel, String method, URI uri, int statusCode, long latencyNanos,
+                                    long responseBytes, Map<String, List<String>> responseHeaders) {
+        String operation = operation(method, uri);
+        Operation stats = operations.computeIfAbsent(channel + " " + operation,
+                key -> new Operation(channel, operation));
+        stats.latenciesNanos.add(latencyNanos);
+        stats.responseBytes += responseBytes;
+        stats.statusCodes.merge(statusCode, 1, Integer::sum);
+        log.atDebug()
+                .addKeyValue("store", channel)
+                .addKeyValue("operation", operation)
+                .addKeyValue("status", statusCode)
+                .addKeyValue("durationMs", latencyNanos / 1_000_000)
+                .addKeyValue("bytes", responseBytes)
+                .log("HTTP call");
+
+        String call = channel + " " + method + " " + uri;
+        boolean failed = statusCode == NO_RESPONSE || statusCode == 429 || statusCode >= 500;
+        if (failedCalls.contains(call)) {
+            stats.retries++;
+        }
+        if (failed) {
+            failedCalls.add(call);
+        } else {
+            failedCalls.remove(call);
+        }
+
+        if (responseHeaders != null) {
+            recordRateLimit(channel, responseHeaders);
+        }
+    }
+
+    /**
+     * Writes {@code metrics.json} and {@code metrics.prom} (Prometheus text exposition format) into
+     * the directory.
+     */
+    public synchronized void write(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        writeJson(directory.resolve("metrics.json"));
+        writePrometheus(directory.resolve("metrics.prom"));
+    }
+
+    /**
+     * @return one line per operation, the slowest in total first
+     */
+    public synchronized List<String> summary() {
+        List<String> lines = new ArrayList<>();
+        for (Operation operation : sortedOperations()) {
+            lines.add(String.format(Locale.ROOT, "%s %s: %d calls, p50 %.0f ms, p95 %.0f ms, total %.1f s, %d KiB",
+                    operation.channel, operation.operation, operation.latenciesNanos.size(),
+                    operation.quantileMillis(0.5), operation.quantileMillis(0.95),
+                    operation.totalNanos() / 1e9, operation.responseBytes / 1024));
+        }
+        return lines;
+    }
+
+    /**
+     * @return request totals and the rate limit headroom per channel
+     */
+    public synchronized Map<String, RunSummary.HttpTotals> totals() {
+        Map<String, RunSummary.HttpTotals> totals = new TreeMap<>();
+        for (Operation operation : operations.values()) {
+            RunSummary.HttpTotals channel = totals.computeIfAbsent(operation.channel,
+                    key -> new RunSummary.HttpTotals());
+            channel.setRequests(channel.getRequests() + operation.latenciesNanos.size());
+            channel.setRetries(channel.getRetries() + operation.retries);
+            channel.setResponseBytes(channel.getResponseBytes() + operation.responseBytes);
+            operation.statusCodes.forEach((status, count) -> {
+                if (status == NO_RESPONSE || status >= 400) {
+                    channel.setFailed(channel.getFailed() + count);
+                }
+            });
+        }
+        rateLimits.forEach((channel, rateLimit) -> {
+            RunSummary.HttpTotals totalsOfChannel = totals.computeIfAbsent(channel, key -> new RunSummary.HttpTotals());
+            totalsOfChannel.setRateLimit(rateLimit.limit);
+            totalsOfChannel.setRateLimitRemaining(rateLimit.minRemaining);
+        });
+        return totals;
+    }
+
+    /**
+     * Commits a JFR event for a call that was timed with {@link HttpRequestEvent#begin()}.
+     */
+    static void commitEvent(HttpRequestEvent event, String channel, String method, URI uri, int statusCode,
+                            long responseBytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.store = channel;
+            event.method = method;
+            event.operation = operation(method, uri);
+            event.url = uri.toString();
+            event.statusCode = statusCode;
+            event.responseBytes = responseBytes;
+            event.commit();
+        }
+    }
+
+    static String operation(String method, URI uri) {
+        StringBuilder path = new StringBuilder(method);
+        path.append(' ');
+        String rawPath = uri.getRawPath();
+        if (rawPath == null || rawPath.isEmpty()) {
+            return path.append('/').toString();
+        }
+        for (String segment : rawPath.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            path.append('/');
+            // Versions such as v1 and v3 are kept; ids, package names and edit ids contain digits or dots
+            boolean id = !segment.matches("v\\d+") && segment.chars().anyMatch(c -> Character.isDigit(c) || c == '.');
+            path.append(id ? "{id}" : segment);
+        }
+        return path.toString();
+    }
+
+    private void recordRateLimit(String channel, Map<String, List<String>> headers) {
+        Long limit = null;
+        Long remaining = null;
+        for (var header : headers.entrySet()) {
+            String name = header.getKey().toLowerCase(Locale.ROOT);
+            if (header.getValue().isEmpty()) {
+                continue;
+            }
+            String value = header.getValue().get(0).trim();
+            if (name.equals("x-rate-limit")) {
+                Matcher matcher = APP_STORE_RATE_LIMIT.matcher(value);
+                while (matcher.find()) {
+                    long number = Long.parseLong(matcher.group(3));
+                    if (matcher.group(2).equals("lim")) {
+                        limit = number;
+                    } else {
+                        remaining = number;
+                    }
+                }
+            } else if (name.equals("x-ratelimit-limit") || name.equals("ratelimit-limit")) {
+                limit = parseLong(value);
+            } else if (name.equals("x-ratelimit-remaining") || name.equals("ratelimit-remaining")) {
+                remaining = parseLong(value);
+            }
+        }
+        if (remaining != null) {
+            RateLimit rateLimit = rateLimits.computeIfAbsent(channel, key -> new RateLimit());
+            rateLimit.minRemaining = Math.min(rateLimit.minRemaining, remaining);
+            if (limit != null) {
+                rateLimit.limit = limit;
+            }
+        }
+    }
+
+    private static Long parseLong(String value) {
+        try {
+            return Long.parseLong(value.split("[,;]")[0].trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private List<Operation> sortedOperations() {
+        List<Operation> sorted = new ArrayList<>(operations.values());
+        sorted.sort(Comparator.comparingLong(Operation::totalNanos).reversed());
+        return sorted;
+    }
+
+    private void writeJson(Path file) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("startedAt", startedAt.toString());
+        root.put("finishedAt", Instant.now().toString());
+
+        ArrayNode operationsNode = root.putArray("operations");
+        for (Operation operation : sortedOperations()) {
+            ObjectNode node = operationsNode.addObject();
+            node.put("channel", operation.channel);
+            node.put("operation", operation.operation);
+            node.put("calls", operation.latenciesNanos.size());
+            node.put("retries", operation.retries);
+            node.put("responseBytes", operation.responseBytes);
+            ObjectNode latency = node.putObject("latencyMs");
+            latency.put("p50", operation.quantileMillis(0.5));
+            latency.put("p95", operation.quantileMillis(0.95));
+            latency.put("p99", operation.quantileMillis(0.99));
+            latency.put("max", operation.quantileMillis(1));
+            latency.put("total", operation.totalNanos() / 1e6);
+            ObjectNode statusCodes = node.putObject("statusCodes");
+            operation.statusCodes.forEach((status, count) -> statusCodes.put(String.valueOf(status), count));
+        }
+
+        ObjectNode rateLimitsNode = root.putObject("rateLimit");
+        rateLimits.forEach((channel, rateLimit) -> {
+            ObjectNode node = rateLimitsNode.putObject(channel);
+            if (rateLimit.limit != null) {
+                node.put("limit", rateLimit.limit);
+            }
+            node.put("minRemaining", rateLimit.minRemaining);
+        });
+
+        objectMapper.writeValue(file.toFile(), root);
+    }
+
+    private void writePrometheus(Path file) throws IOException {
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write("# HELP store_metadata_exporter_http_requests_total HTTP calls by operation and status code.\n");
+            out.write("# TYPE store_metadata_exporter_http_requests_total counter\n");
+            for (Operation operation : operations.values()) {
+                for (var status : operation.statusCodes.entrySet()) {
+                    out.write("store_metadata_exporter_http_requests_total{" + operation.labels()
+                            + ",status=\"" + status.getKey() + "\"} " + status.getValue() + "\n");
+                }
+            }
+
+            out.write("# HELP store_metadata_exporter_http_request_duration_seconds HTTP call latency by operation.\n");
+            out.write("# TYPE store_metadata_exporter_http_request_duration_seconds summary\n");
+            for (Operation operation : operations.values()) {
+                for (double quantile : QUANTILES) {
+                    out.write("store_metadata_exporter_http_request_duration_seconds{" + operation.labels()
+                            + ",quantile=\"" + quantile + "\"} " + operation.quantileMillis(quantile) / 1e3 + "\n");
+                }
+                out.write("store_metadata_exporter_http_request_duration_seconds_sum{" + operation.labels() + "} "
+                        + operation.totalNanos() / 1e9 + "\n");
+                out.write("store_metadata_exporter_http_request_duration_seconds_count{" + operation.labels() + "} "
+                        + operation.latenciesNanos.size() + "\n");
+            }
+
+            out.write("# HELP store_metadata_exporter_http_response_bytes_total Response bytes received by operation.\n");
+            out.write("# TYPE store_metadata_exporter_http_response_bytes_total counter\n");
+            for (Operation operation : operations.values()) {
+                out.write("store_metadata_exporter_http_response_bytes_total{" + operation.labels() + "} "
+                        + operation.responseBytes + "\n");
+            }
+
+            out.write("# HELP store_metadata_exporter_http_retries_total Calls repeating a failed call by operation.\n");
+            out.write("# TYPE store_metadata_exporter_http_retries_total counter\n");
+            for (Operation operation : operations.values()) {
+                out.write("store_metadata_exporter_http_retries_total{" + operation.labels() + "} "
+                        + operation.retries + "\n");
+            }
+
+            if (!rateLimits.isEmpty()) {
+                out.write("# HELP store_metadata_exporter_rate_limit_remaining Lowest remaining rate limit seen.\n");
+                out.write("# TYPE store_metadata_exporter_rate_limit_remaining gauge\n");
+                for (var rateLimit : rateLimits.entrySet()) {
+                    out.write("store_metadata_exporter_rate_limit_remaining{channel=\"" + escape(rateLimit.getKey())
+                            + "\"} " + rateLimit.getValue().minRemaining + "\n");
+                }
+                out.write("# HELP store_metadata_exporter_rate_limit Rate limit reported by the server.\n");
+                out.write("# TYPE store_metadata_exporter_rate_limit gauge\n");
+                for (var rateLimit : rateLimits.entrySet()) {
+                    if (rateLimit.getValue().limit != null) {
+                        out.write("store_metadata_exporter_rate_limit{channel=\"" + escape(rateLimit.getKey())
+                                + "\"} " + rateLimit.getValue().limit + "\n");
+                    }
+                }
+            }
+        }
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class Operation {
+        private final String channel;
+        private final String operation;
+        private final List<Long> latenciesNanos = new ArrayList<>();
+        private final Map<Integer, Integer> statusCodes = new TreeMap<>();
+        private long responseBytes;
+        private int retries;
+
+        Operation(String channel, String operation) {
+            this.channel = channel;
+            this.operation = operation;
+        }
+
+        long totalNanos() {
+            return latenciesNanos.stream().mapToLong(Long::longValue).sum();
+        }
+
+        // Nearest-rank percentile
+        double quantileMillis(double quantile) {
+            if (latenciesNanos.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(latenciesNanos);
+            sorted.sort(null);
+            int rank = (int) Math.ceil(quantile * sorted.size());
+            return sorted.get(Math.max(0, rank - 1)) / 1e6;
+        }
+
+        String labels() {
+            return "channel=\"" + escape(channel) + "\",operation=\"" + escape(operation) + "\"";
+        }
+    }
+
+    private static class RateLimit {
+        private Long limit;
+        private long minRemaining = Long.MAX_VALUE;
+    }
+}
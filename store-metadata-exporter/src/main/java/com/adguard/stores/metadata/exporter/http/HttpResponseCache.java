@@ -0,0 +1,151 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk store of HTTP responses.
+ *
+ * <pre>
+ * ab/cdef...gz   gzip of one JSON header line followed by the response body,
+ *                named by the SHA-256 of method, URL and auth scope
+ * </pre>
+ *
+ * <p>Entries are replaced atomically, so an interrupted run never leaves a torn entry behind.</p>
+ */
+public class HttpResponseCache {
+
+    private final Path root;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    public HttpResponseCache(Path root) {
+        this.root = root;
+    }
+
+    public static String key(String method, String uri, String authScope) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((method + " " + uri + "\n" + authScope).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the cached entry, or {@code null} if there is none or it cannot be read
+     */
+    public Entry get(String key) {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(entryPath(key)))) {
+            byte[] content = in.readAllBytes();
+            int newline = indexOf(content, (byte) '\n');
+            if (newline < 0) {
+                return null;
+            }
+            Entry entry = objectMapper.readValue(content, 0, newline, Entry.class);
+            entry.body = new byte[content.length - newline - 1];
+            System.arraycopy(content, newline + 1, entry.body, 0, entry.body.length);
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // A corrupt entry is treated as a miss and overwritten
+            return null;
+        }
+    }
+
+    public void put(String key, Entry entry) throws IOException {
+        Path entryFile = entryPath(key);
+        Files.createDirectories(entryFile.getParent());
+        Path tempFile = Files.createTempFile(entryFile.getParent(), key, ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+                out.write(objectMapper.writeValueAsBytes(entry));
+                out.write('\n');
+                out.write(entry.body);
+            }
+            try {
+                Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Records a response served from the cache.
+     *
+     * @param revalidated whether the server confirmed the entry with {@code 304 Not Modified}
+     */
+    public void recordHit(long bodyLength, boolean revalidated) {
+        hits.incrementAndGet();
+        if (revalidated) {
+            this.revalidated.incrementAndGet();
+        }
+        bytesSaved.addAndGet(bodyLength);
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * @return e.g. {@code 42 hits (30 revalidated), 8 misses, 84% hit rate, 1.2 MB not downloaded}
+     */
+    public String summary() {
+        long total = hits.get() + misses.get();
+        long hitRate = total == 0 ? 0 : Math.round(100.0 * hits.get() / total);
+        return hits.get() + " hits (" + revalidated.get() + " revalidated), " + misses.get() + " misses, "
+                + hitRate + "% hit rate, "
+                + String.format(Locale.ROOT, "%.1f MB", bytesSaved.get() / (1024.0 * 1024.0)) + " not downloaded";
+    }
+
+    private Path entryPath(String key) {
+        return root.resolve(key.substring(0, 2)).resolve(key.substring(2) + ".gz");
+    }
+
+    private static int indexOf(byte[] content, byte value) {
+        for (int i = 0; i < content.length; i++) {
+            if (content[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static class Entry {
+        public String uri;
+        public long storedAt;
+        public int statusCode;
+        public Map<String, List<String>> headers = new TreeMap<>();
+        @JsonIgnore
+        public byte[] body;
+    }
+}
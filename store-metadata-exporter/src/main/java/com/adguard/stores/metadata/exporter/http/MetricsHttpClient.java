@@ -0,0 +1,53 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.adguard.stores.metadata.exporter.jfr.HttpRequestEvent;
+import com.adguard.stores.metadata.exporter.trace.Span;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * {@link HttpClient} that records the latency, size and status of every exchange in {@link HttpMetrics}
+ * and as an {@link HttpRequestEvent} and a trace {@link Span}.
+ */
+public class MetricsHttpClient extends DelegatingHttpClient {
+
+    private final HttpMetrics metrics;
+    private final String channel;
+
+    public MetricsHttpClient(HttpClient delegate, HttpMetrics metrics, String channel) {
+        super(delegate);
+        this.metrics = metrics;
+        this.channel = channel;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response;
+        try (Span span = Span.begin("http", HttpMetrics.operation(request.method(), request.uri()))) {
+            span.arg("store", channel);
+            try {
+                response = delegate.send(request, HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException e) {
+                metrics.record(channel, request.method(), request.uri(), HttpMetrics.NO_RESPONSE,
+                        System.nanoTime() - start, 0, null);
+                HttpMetrics.commitEvent(event, channel, request.method(), request.uri(), HttpMetrics.NO_RESPONSE, 0);
+                throw e;
+            }
+            span.arg("status", response.statusCode()).arg("bytes", response.body().length);
+        }
+        metrics.record(channel, request.method(), request.uri(), response.statusCode(), System.nanoTime() - start,
+                response.body().length, response.headers().map());
+        HttpMetrics.commitEvent(event, channel, request.method(), request.uri(), response.statusCode(),
+                response.body().length);
+
+        return BufferedHttpResponse.of(request, response.statusCode(), response.headers(), response.body(),
+                responseBodyHandler);
+    }
+}
@@ -0,0 +1,58 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.adguard.stores.metadata.exporter.jfr.HttpRequestEvent;
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Google {@link HttpTransport} that records the latency, size and status of every exchange of a delegate
+ * transport in {@link HttpMetrics}, as an {@link HttpRequestEvent} and as a trace {@link Span}. The response
+ * is read completely so the measured latency includes the transfer of the content.
+ */
+public class MetricsHttpTransport extends DelegatingHttpTransport {
+
+    private final HttpMetrics metrics;
+    private final String channel;
+
+    public MetricsHttpTransport(HttpTransport delegate, HttpMetrics metrics, String channel) {
+        super(delegate);
+        this.metrics = metrics;
+        this.channel = channel;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new DelegatingRequest(method, url, buildDelegateRequest(method, url)) {
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                URI uri = URI.create(url);
+                HttpRequestEvent event = new HttpRequestEvent();
+                event.begin();
+                long start = System.nanoTime();
+                BufferedLowLevelHttpResponse response;
+                try (Span span = Span.begin("http", HttpMetrics.operation(method, uri))) {
+                    span.arg("store", channel);
+                    try {
+                        response = BufferedLowLevelHttpResponse.read(super.execute());
+                    } catch (IOException e) {
+                        metrics.record(channel, method, uri, HttpMetrics.NO_RESPONSE, System.nanoTime() - start, 0,
+                                null);
+                        HttpMetrics.commitEvent(event, channel, method, uri, HttpMetrics.NO_RESPONSE, 0);
+                        throw e;
+                    }
+                    span.arg("status", response.getStatusCode()).arg("bytes", response.getContentBytes().length);
+                }
+                metrics.record(channel, method, uri, response.getStatusCode(), System.nanoTime() - start,
+                        response.getContentBytes().length, response.getHeaders());
+                HttpMetrics.commitEvent(event, channel, method, uri, response.getStatusCode(),
+                        response.getContentBytes().length);
+                return response;
+            }
+        };
+    }
+}
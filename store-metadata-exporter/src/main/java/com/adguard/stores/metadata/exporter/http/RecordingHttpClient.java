@@ -0,0 +1,41 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * {@link HttpClient} that records every exchange into a {@link Cassette}.
+ */
+public class RecordingHttpClient extends DelegatingHttpClient {
+
+    private final Cassette cassette;
+    private final String channel;
+
+    public RecordingHttpClient(HttpClient delegate, Cassette cassette, String channel) {
+        super(delegate);
+        this.cassette = cassette;
+        this.channel = channel;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        HttpResponse<byte[]> response = delegate.send(request, HttpResponse.BodyHandlers.ofByteArray());
+
+        Cassette.Exchange exchange = new Cassette.Exchange();
+        exchange.method = request.method();
+        exchange.uri = request.uri().toString();
+        exchange.requestHeaders = Cassette.redact(request.headers().map());
+        exchange.statusCode = response.statusCode();
+        exchange.responseHeaders = Cassette.redact(response.headers().map());
+        exchange.setResponseBody(response.body());
+        exchange.durationMillis = (System.nanoTime() - start) / 1_000_000;
+        cassette.record(channel, exchange);
+
+        return BufferedHttpResponse.of(request, response.statusCode(), response.headers(), response.body(),
+                responseBodyHandler);
+    }
+}
@@ -0,0 +1,77 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Google {@link HttpTransport} that records every exchange of a delegate transport into a {@link Cassette}.
+ * Response content is recorded as received, before gzip decoding. The part headers of multipart request
+ * bodies (batch requests) are redacted like the request headers.
+ */
+public class RecordingHttpTransport extends DelegatingHttpTransport {
+
+    private final Cassette cassette;
+    private final String channel;
+
+    public RecordingHttpTransport(HttpTransport delegate, Cassette cassette, String channel) {
+        super(delegate);
+        this.cassette = cassette;
+        this.channel = channel;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) throws IOException {
+        return new RecordingRequest(method, url, buildDelegateRequest(method, url));
+    }
+
+    private class RecordingRequest extends DelegatingRequest {
+
+        private final Map<String, List<String>> headers = new LinkedHashMap<>();
+
+        RecordingRequest(String method, String url, LowLevelHttpRequest delegateRequest) {
+            super(method, url, delegateRequest);
+        }
+
+        @Override
+        public void addHeader(String name, String value) throws IOException {
+            headers.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+            super.addHeader(name, value);
+        }
+
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+            Cassette.Exchange exchange = new Cassette.Exchange();
+            exchange.method = method;
+            exchange.uri = url;
+            exchange.requestHeaders = Cassette.redact(headers);
+
+            if (getStreamingContent() != null) {
+                ByteArrayOutputStream requestContent = new ByteArrayOutputStream();
+                getStreamingContent().writeTo(requestContent);
+                exchange.requestBody = requestContent.toString(StandardCharsets.UTF_8);
+                if (getContentType() != null && getContentType().startsWith("multipart/")) {
+                    exchange.requestBody = Cassette.redactBody(exchange.requestBody);
+                }
+            }
+
+            long start = System.nanoTime();
+            BufferedLowLevelHttpResponse response = BufferedLowLevelHttpResponse.read(super.execute());
+            exchange.durationMillis = (System.nanoTime() - start) / 1_000_000;
+            exchange.statusCode = response.getStatusCode();
+            exchange.responseHeaders = Cassette.redact(response.getHeaders());
+            exchange.setResponseBody(response.getContentBytes());
+            cassette.record(channel, exchange);
+
+            return response;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+/**
+ * {@link HttpClient} that answers every request from a {@link Cassette} without touching the network.
+ */
+public class ReplayHttpClient extends DelegatingHttpClient {
+
+    private final Cassette cassette;
+    private final String channel;
+
+    public ReplayHttpClient(HttpClient delegate, Cassette cassette, String channel) {
+        super(delegate);
+        this.cassette = cassette;
+        this.channel = channel;
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler)
+            throws IOException, InterruptedException {
+        Cassette.Exchange exchange = cassette.replay(channel, request.method(), request.uri().toString());
+        HttpHeaders headers = HttpHeaders.of(exchange.responseHeaders, (name, value) -> true);
+        return BufferedHttpResponse.of(request, exchange.statusCode, headers, exchange.responseBody(),
+                responseBodyHandler);
+    }
+}
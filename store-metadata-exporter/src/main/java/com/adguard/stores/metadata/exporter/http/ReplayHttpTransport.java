@@ -0,0 +1,43 @@
+package com.adguard.stores.metadata.exporter.http;
+
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Google {@link HttpTransport} that answers every request from a {@link Cassette} without touching the network.
+ */
+public class ReplayHttpTransport extends HttpTransport {
+
+    private final Cassette cassette;
+    private final String channel;
+
+    public ReplayHttpTransport(Cassette cassette, String channel) {
+        this.cassette = cassette;
+        this.channel = channel;
+    }
+
+    @Override
+    protected LowLevelHttpRequest buildRequest(String method, String url) {
+        return new LowLevelHttpRequest() {
+            @Override
+            public void addHeader(String name, String value) {
+            }
+
+            @Override
+            public LowLevelHttpResponse execute() throws IOException {
+                try {
+                    Cassette.Exchange exchange = cassette.replay(channel, method, url);
+                    return new BufferedLowLevelHttpResponse(exchange.statusCode, exchange.responseHeaders,
+                            exchange.responseBody());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException(e.getMessage());
+                }
+            }
+        };
+    }
+}
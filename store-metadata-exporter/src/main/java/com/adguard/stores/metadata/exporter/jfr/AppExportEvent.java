@@ -0,0 +1,26 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Processing of one app: fetching its metadata and, for App Store apps, exporting it.
+ */
+@Name("com.adguard.stores.AppExport")
+@Label("App Export")
+@Category({"Store Metadata Exporter", "Apps"})
+public class AppExportEvent extends Event {
+
+    @Label("Store")
+    public String store;
+
+    @Label("App Id")
+    public String appId;
+
+    @Label("Source")
+    @Description("Where the metadata came from: api, state or checkpoint")
+    public String source;
+}
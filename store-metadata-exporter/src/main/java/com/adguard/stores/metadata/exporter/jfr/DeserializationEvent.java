@@ -0,0 +1,28 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Parsing of one API response into its model type.
+ */
+@Name("com.adguard.stores.Deserialization")
+@Label("Deserialization")
+@Category({"Store Metadata Exporter", "JSON"})
+public class DeserializationEvent extends Event {
+
+    @Label("Store")
+    public String store;
+
+    @Label("Target Type")
+    public String targetType;
+
+    @Label("Content Size")
+    @DataAmount
+    @Description("-1 if the content was streamed")
+    public long contentBytes;
+}
@@ -0,0 +1,31 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One metadata file handed to an output sink.
+ */
+@Name("com.adguard.stores.FileWrite")
+@Label("Metadata File Write")
+@Category({"Store Metadata Exporter", "Output"})
+public class FileWriteEvent extends Event {
+
+    @Label("Sink")
+    public String sink;
+
+    @Label("Path")
+    public String path;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Written")
+    @Description("False if the file was unchanged or the run is a dry run")
+    public boolean written;
+}
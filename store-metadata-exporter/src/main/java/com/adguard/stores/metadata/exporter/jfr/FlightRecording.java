@@ -0,0 +1,60 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+
+/**
+ * JDK Flight Recorder recording of a whole run, written to a file when closed.
+ * <p>
+ * Uses the JDK's {@code profile} settings (method sampling every 10 ms, GC, I/O and lock events above
+ * 10 ms) and enables the exporter's own events, so network waits, parsing, file output and GC pauses
+ * show up in one timeline.
+ */
+public class FlightRecording implements Closeable {
+
+    private final Recording recording;
+    private final Path file;
+
+    private FlightRecording(Recording recording, Path file) {
+        this.recording = recording;
+        this.file = file;
+    }
+
+    public static FlightRecording start(Path file) throws IOException {
+        Configuration configuration;
+        try {
+            configuration = Configuration.getConfiguration("profile");
+        } catch (ParseException e) {
+            throw new IOException("Failed to load the JFR profile settings", e);
+        }
+
+        Recording recording = new Recording(configuration);
+        recording.setName("store-metadata-exporter");
+        recording.setToDisk(true);
+        recording.setDestination(file);
+        recording.enable(HttpRequestEvent.class).withoutThreshold();
+        recording.enable(DeserializationEvent.class).withoutThreshold();
+        recording.enable(FileWriteEvent.class).withoutThreshold();
+        recording.enable(AppExportEvent.class).withoutThreshold();
+        recording.start();
+        return new FlightRecording(recording, file);
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Stops the recording, which writes it to the destination file.
+     */
+    @Override
+    public void close() throws IOException {
+        recording.stop();
+        recording.close();
+    }
+}
@@ -0,0 +1,39 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * One API call, from sending the request until the response content was read.
+ */
+@Name("com.adguard.stores.HttpRequest")
+@Label("HTTP Request")
+@Category({"Store Metadata Exporter", "HTTP"})
+@Description("API call to App Store Connect or Google Play")
+public class HttpRequestEvent extends Event {
+
+    @Label("Store")
+    public String store;
+
+    @Label("Method")
+    public String method;
+
+    @Label("Operation")
+    @Description("Method and URL path with ids replaced by {id}")
+    public String operation;
+
+    @Label("URL")
+    public String url;
+
+    @Label("Status Code")
+    @Description("0 if the call failed without a response")
+    public int statusCode;
+
+    @Label("Response Size")
+    @DataAmount
+    public long responseBytes;
+}
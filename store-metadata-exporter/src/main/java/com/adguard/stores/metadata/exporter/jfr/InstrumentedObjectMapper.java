@@ -0,0 +1,46 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * {@link ObjectMapper} that emits a {@link DeserializationEvent} for every response parsed by the
+ * generated App Store Connect client, which reads each body with {@code readValue(String, TypeReference)}.
+ * Parsing is traced as a {@link Span} as well.
+ */
+public class InstrumentedObjectMapper extends ObjectMapper {
+
+    private final String store;
+
+    public InstrumentedObjectMapper(ObjectMapper source, String store) {
+        super(source);
+        this.store = store;
+    }
+
+    @Override
+    public ObjectMapper copy() {
+        return new InstrumentedObjectMapper(this, store);
+    }
+
+    @Override
+    public <T> T readValue(String content, TypeReference<T> valueTypeRef) throws JsonProcessingException {
+        try (Span span = Span.begin("parse", valueTypeRef.getType().getTypeName())) {
+            span.arg("store", store).arg("bytes", content.length());
+            DeserializationEvent event = new DeserializationEvent();
+            if (!event.isEnabled()) {
+                return super.readValue(content, valueTypeRef);
+            }
+            event.begin();
+            try {
+                return super.readValue(content, valueTypeRef);
+            } finally {
+                event.store = store;
+                event.targetType = valueTypeRef.getType().getTypeName();
+                event.contentBytes = content.length();
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.adguard.stores.metadata.exporter.jfr;
+
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.google.api.client.util.ObjectParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+/**
+ * Google client {@link ObjectParser} that emits a {@link DeserializationEvent} and a trace {@link Span} for
+ * every parsed response.
+ */
+public class InstrumentedObjectParser implements ObjectParser {
+
+    private final ObjectParser delegate;
+    private final String store;
+
+    public InstrumentedObjectParser(ObjectParser delegate, String store) {
+        this.delegate = delegate;
+        this.store = store;
+    }
+
+    @Override
+    public <T> T parseAndClose(InputStream in, Charset charset, Class<T> dataClass) throws IOException {
+        return parse(dataClass, () -> delegate.parseAndClose(in, charset, dataClass));
+    }
+
+    @Override
+    public Object parseAndClose(InputStream in, Charset charset, Type dataType) throws IOException {
+        return parse(dataType, () -> delegate.parseAndClose(in, charset, dataType));
+    }
+
+    @Override
+    public <T> T parseAndClose(Reader reader, Class<T> dataClass) throws IOException {
+        return parse(dataClass, () -> delegate.parseAndClose(reader, dataClass));
+    }
+
+    @Override
+    public Object parseAndClose(Reader reader, Type dataType) throws IOException {
+        return parse(dataType, () -> delegate.parseAndClose(reader, dataType));
+    }
+
+    private <T> T parse(Type type, ParseCall<T> call) throws IOException {
+        try (Span span = Span.begin("parse", type.getTypeName())) {
+            span.arg("store", store);
+            DeserializationEvent event = new DeserializationEvent();
+            if (!event.isEnabled()) {
+                return call.parse();
+            }
+            event.begin();
+            try {
+                return call.parse();
+            } finally {
+                event.store = store;
+                event.targetType = type.getTypeName();
+                // The content arrives as a stream
+                event.contentBytes = -1;
+                event.commit();
+            }
+        }
+    }
+
+    private interface ParseCall<T> {
+        T parse() throws IOException;
+    }
+}
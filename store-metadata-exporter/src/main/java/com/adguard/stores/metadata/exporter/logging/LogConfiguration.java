@@ -0,0 +1,72 @@
+package com.adguard.stores.metadata.exporter.logging;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.encoder.JsonEncoder;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.ConsoleAppender;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adjusts the logback configuration from {@code logback.xml} to the command line options.
+ * <p>
+ * Both formats write to stderr through an {@link AsyncAppender}: worker threads only enqueue events, and
+ * when the queue is full events are dropped instead of blocking the export. {@link #shutdown()} drains the
+ * queue and has to run before the JVM exits.
+ */
+public final class LogConfiguration {
+
+    private static final String APP_LOGGER = "com.adguard.stores";
+    private static final int QUEUE_SIZE = 8192;
+
+    private LogConfiguration() {
+    }
+
+    public static void configure(LogFormat format, boolean verbose) {
+        LoggerContext context = (LoggerContext) LoggerFactory.getILoggerFactory();
+        if (format == LogFormat.JSON) {
+            Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+            root.detachAndStopAllAppenders();
+
+            JsonEncoder encoder = new JsonEncoder();
+            encoder.setContext(context);
+            // The formatted message replaces the message template and its arguments
+            encoder.setWithFormattedMessage(true);
+            encoder.setWithMessage(false);
+            encoder.setWithArguments(false);
+            encoder.setWithSequenceNumber(false);
+            encoder.setWithContext(false);
+            encoder.setWithMDC(false);
+            encoder.start();
+
+            ConsoleAppender<ILoggingEvent> console = new ConsoleAppender<>();
+            console.setContext(context);
+            console.setName("CONSOLE");
+            console.setTarget("System.err");
+            console.setEncoder(encoder);
+            console.start();
+
+            AsyncAppender async = new AsyncAppender();
+            async.setContext(context);
+            async.setName("ASYNC");
+            async.setQueueSize(QUEUE_SIZE);
+            async.setDiscardingThreshold(0);
+            async.setNeverBlock(true);
+            async.addAppender(console);
+            async.start();
+            root.addAppender(async);
+        }
+        context.getLogger(APP_LOGGER).setLevel(verbose ? Level.DEBUG : Level.INFO);
+    }
+
+    /**
+     * Flushes queued events and stops the appenders.
+     */
+    public static void shutdown() {
+        if (LoggerFactory.getILoggerFactory() instanceof LoggerContext context) {
+            context.stop();
+        }
+    }
+}
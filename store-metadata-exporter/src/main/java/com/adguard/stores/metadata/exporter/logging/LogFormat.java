@@ -0,0 +1,8 @@
+package com.adguard.stores.metadata.exporter.logging;
+
+public enum LogFormat {
+    /** One human-readable line per event, key/value fields appended as {@code key=value}. */
+    TEXT,
+    /** One JSON object per line with the level, message, thread, timestamp and key/value fields. */
+    JSON
+}
@@ -0,0 +1,47 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
+
+import java.util.List;
+
+/**
+ * Screenshots and app previews of the live App Store version of an app, written as
+ * {@code assets.json} next to the downloaded files.
+ */
+@Data
+@Builder
+@Jacksonized
+public class AppAssets {
+    private String appId;
+    private String bundleId;
+    private String currentVersion;
+    // Per locale and display type, in the order shown on the App Store
+    private List<Asset> assets;
+
+    @Data
+    @Builder
+    @Jacksonized
+    public static class Asset {
+        private String id;
+        private String locale;
+        // screenshot or preview
+        private String kind;
+        // Screenshot display type or preview type, e.g. APP_IPHONE_67 or IPHONE_67
+        private String displayType;
+        private int position;
+        private String fileName;
+        private Integer fileSize;
+        // Checksum of the uploaded source file; identical assets of different locales share it
+        private String sourceFileChecksum;
+        private Integer width;
+        private Integer height;
+        // Full-size image: the screenshot itself, or the poster frame of a preview
+        private String imageUrl;
+        // Streaming playlist of a preview video
+        private String videoUrl;
+        // Path of the downloaded image, relative to the directory of the app
+        private String path;
+    }
+}
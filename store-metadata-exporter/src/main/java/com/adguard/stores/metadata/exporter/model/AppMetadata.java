@@ -2,12 +2,14 @@ package com.adguard.stores.metadata.exporter.model;
 
 import lombok.Builder;
 import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
 
 import java.time.Instant;
 import java.util.List;
 
 @Data
 @Builder
+@Jacksonized
 public class AppMetadata {
     private String appId;
     private String bundleId;
@@ -0,0 +1,35 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
+
+import java.time.Instant;
+
+/**
+ * A customer review together with the developer response, one line of a reviews NDJSON file.
+ */
+@Data
+@Builder
+@Jacksonized
+public class AppReview {
+    private String id;
+    private String territory;
+    private Integer rating;
+    private String title;
+    private String body;
+    private String reviewerNickname;
+    private Instant createdAt;
+    private Response response;
+
+    @Data
+    @Builder
+    @Jacksonized
+    public static class Response {
+        private String id;
+        private String body;
+        private Instant lastModifiedAt;
+        // PUBLISHED or PENDING_PUBLISH
+        private String state;
+    }
+}
@@ -0,0 +1,29 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
+
+import java.util.List;
+
+/**
+ * Cheap-to-fetch identity of an app's published state. When it is unchanged between runs the
+ * localizations are assumed to be unchanged as well.
+ */
+@Data
+@Builder
+@Jacksonized
+public class AppWatermark {
+    private String versionId;
+    private String versionString;
+    private String appStoreState;
+    private List<AppInfoState> appInfos;
+
+    @Data
+    @Builder
+    @Jacksonized
+    public static class AppInfoState {
+        private String id;
+        private String state;
+    }
+}
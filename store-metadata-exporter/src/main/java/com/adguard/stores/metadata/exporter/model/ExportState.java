@@ -0,0 +1,29 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * State persisted between runs: the watermark and the last exported metadata of every app,
+ * keyed by App Store Connect app id.
+ */
+@Data
+public class ExportState {
+    private int runsSinceFullRefresh;
+    // Locales the metadata was fetched with, null for all; a different selection forces a full refresh
+    private List<String> locales;
+    private Map<String, AppState> apps = new TreeMap<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class AppState {
+        private AppWatermark watermark;
+        private AppMetadata metadata;
+    }
+}
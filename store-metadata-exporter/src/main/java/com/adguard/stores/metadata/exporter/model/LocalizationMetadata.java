@@ -2,16 +2,26 @@ package com.adguard.stores.metadata.exporter.model;
 
 import lombok.Builder;
 import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
+
+import java.util.Map;
 
 @Data
 @Builder
+@Jacksonized
 public class LocalizationMetadata {
     private String locale;
     private AppInfoData appInfo;
     private VersionData version;
+    // In-app purchases and subscriptions by product id, subscription groups by reference name;
+    // App Store Connect only, with --asc-in-app-purchases
+    private Map<String, ProductData> inAppPurchases;
+    private Map<String, ProductData> subscriptions;
+    private Map<String, SubscriptionGroupData> subscriptionGroups;
 
     @Data
     @Builder
+    @Jacksonized
     public static class AppInfoData {
         private String name;
         private String subtitle;
@@ -21,6 +31,7 @@ public class LocalizationMetadata {
 
     @Data
     @Builder
+    @Jacksonized
     public static class VersionData {
         private String description;
         private String keywords;
@@ -28,4 +39,20 @@ public class LocalizationMetadata {
         private String marketingUrl;
         private String supportUrl;
     }
+
+    @Data
+    @Builder
+    @Jacksonized
+    public static class ProductData {
+        private String name;
+        private String description;
+    }
+
+    @Data
+    @Builder
+    @Jacksonized
+    public static class SubscriptionGroupData {
+        private String name;
+        private String customAppName;
+    }
 }
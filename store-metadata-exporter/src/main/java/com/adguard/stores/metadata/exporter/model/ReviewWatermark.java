@@ -0,0 +1,29 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Builder;
+import lombok.Data;
+import lombok.extern.jackson.Jacksonized;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Newest review of an app exported so far. Reviews are listed newest first, so listing stops at the
+ * first review created before {@code createdAt}; reviews created at the same instant are told apart
+ * by their ids.
+ * <p>
+ * While the listing of a run is unfinished, {@code pendingNewest} and {@code pendingOldest} hold the
+ * newest and the oldest review it has appended; the next run skips the reviews between them and
+ * continues below {@code pendingOldest}.
+ */
+@Data
+@Builder
+@Jacksonized
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReviewWatermark {
+    private Instant createdAt;
+    private List<String> reviewIds;
+    private ReviewWatermark pendingNewest;
+    private ReviewWatermark pendingOldest;
+}
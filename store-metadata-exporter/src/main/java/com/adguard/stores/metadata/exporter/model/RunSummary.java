@@ -0,0 +1,80 @@
+package com.adguard.stores.metadata.exporter.model;
+
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Machine-readable result of a run, written with {@code --summary-file}: app counts per store, files
+ * written by the sink, downloaded assets and appended reviews, phase durations and HTTP request totals
+ * with the remaining rate limit.
+ */
+@Data
+public class RunSummary {
+    private Instant startedAt;
+    private Instant finishedAt;
+    private long durationMs;
+    // success, or partial when an app or a store failed
+    private String status;
+    private boolean dryRun;
+    private int appsTotal;
+    private Map<String, StoreSummary> stores = new TreeMap<>();
+    // Only for formats that write one file per document: directory, archive, git and snapshot
+    private FileCounts files;
+    // Only with --assets-dir
+    private AssetCounts assets;
+    // Only with --reviews-dir: new reviews appended in this run
+    private Integer reviewsAppended;
+    // Phase name to duration, in the order the phases ran
+    private Map<String, Long> phasesMs = new LinkedHashMap<>();
+    private Map<String, HttpTotals> http = new TreeMap<>();
+
+    public StoreSummary store(String store) {
+        return stores.computeIfAbsent(store, key -> new StoreSummary());
+    }
+
+    @Data
+    public static class StoreSummary {
+        // Apps passed to the sink
+        private int exported;
+        // How the exported apps were obtained: from the API, from the state file as unchanged,
+        // or from the checkpoint journal of an interrupted run
+        private int fetched;
+        private int unchanged;
+        private int resumed;
+        private int failed;
+        // Set when the whole store was skipped because of an error
+        private String error;
+    }
+
+    @Data
+    public static class FileCounts {
+        private int written;
+        // Unchanged files, and every file of a dry run
+        private int skipped;
+    }
+
+    @Data
+    public static class AssetCounts {
+        // Distinct images: fetched in this run, already stored by an earlier run, or failed to download
+        private int downloaded;
+        private int reused;
+        private int failed;
+        private long downloadedBytes;
+    }
+
+    @Data
+    public static class HttpTotals {
+        private int requests;
+        // Calls that failed without a response or with a 4xx or 5xx status
+        private int failed;
+        private int retries;
+        private long responseBytes;
+        // Rate limit reported by the server and the lowest remaining quota seen, if the server reports one
+        private Long rateLimit;
+        private Long rateLimitRemaining;
+    }
+}
@@ -0,0 +1,139 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects App Store apps by bundle id or SKU.
+ * <p>
+ * A selector is an exact bundle id ({@code com.example.app}), a bundle id glob with {@code *} and
+ * {@code ?} ({@code com.example.*}) or a SKU prefixed with {@code sku:} ({@code sku:EXAMPLE_APP}, globs
+ * allowed as well). An app is selected if it matches any include selector (or there are none) and no
+ * exclude selector.
+ * <p>
+ * When all include selectors are exact bundle ids, or all are exact SKUs, they can be sent to the API as
+ * {@code filter[bundleId]} or {@code filter[sku]}, so unselected apps are never listed. The API combines
+ * different filters with AND, so a mix of both, as well as globs and excludes, is matched on the client.
+ */
+public class AppSelector {
+
+    private static final String SKU_PREFIX = "sku:";
+
+    private final List<Selector> includes;
+    private final List<Selector> excludes;
+
+    private AppSelector(List<Selector> includes, List<Selector> excludes) {
+        this.includes = includes;
+        this.excludes = excludes;
+    }
+
+    /**
+     * Returns a selector that selects every app.
+     */
+    public static AppSelector all() {
+        return new AppSelector(List.of(), List.of());
+    }
+
+    public static AppSelector of(List<String> includes, List<String> excludes) {
+        return new AppSelector(parse(includes), parse(excludes));
+    }
+
+    public boolean isAll() {
+        return includes.isEmpty() && excludes.isEmpty();
+    }
+
+    public boolean matches(String bundleId, String sku) {
+        if (!includes.isEmpty() && includes.stream().noneMatch(selector -> selector.matches(bundleId, sku))) {
+            return false;
+        }
+        return excludes.stream().noneMatch(selector -> selector.matches(bundleId, sku));
+    }
+
+    /**
+     * Returns the bundle ids to send as {@code filter[bundleId]}, or {@code null} if the include
+     * selectors cannot be expressed that way.
+     */
+    public List<String> bundleIdFilter() {
+        return exactValues(false);
+    }
+
+    /**
+     * Returns the SKUs to send as {@code filter[sku]}, or {@code null} if the include selectors cannot be
+     * expressed that way.
+     */
+    public List<String> skuFilter() {
+        return exactValues(true);
+    }
+
+    private List<String> exactValues(boolean sku) {
+        if (includes.isEmpty()) {
+            return null;
+        }
+        List<String> values = new ArrayList<>();
+        for (Selector selector : includes) {
+            if (selector.sku != sku || selector.glob) {
+                return null;
+            }
+            values.add(selector.value);
+        }
+        return values;
+    }
+
+    private static List<Selector> parse(List<String> values) {
+        List<Selector> selectors = new ArrayList<>();
+        if (values != null) {
+            for (String value : values) {
+                String trimmed = value.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                boolean sku = trimmed.regionMatches(true, 0, SKU_PREFIX, 0, SKU_PREFIX.length());
+                selectors.add(new Selector(sku ? trimmed.substring(SKU_PREFIX.length()) : trimmed, sku));
+            }
+        }
+        return List.copyOf(selectors);
+    }
+
+    private static class Selector {
+        private final String value;
+        private final boolean sku;
+        private final boolean glob;
+        private final Pattern pattern;
+
+        Selector(String value, boolean sku) {
+            this.value = value;
+            this.sku = sku;
+            this.glob = value.indexOf('*') >= 0 || value.indexOf('?') >= 0;
+            this.pattern = glob ? toPattern(value) : null;
+        }
+
+        boolean matches(String bundleId, String sku) {
+            String candidate = this.sku ? sku : bundleId;
+            if (candidate == null) {
+                return false;
+            }
+            return glob ? pattern.matcher(candidate).matches() : value.equals(candidate);
+        }
+
+        private static Pattern toPattern(String glob) {
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : glob.toCharArray()) {
+                if (c == '*' || c == '?') {
+                    if (!literal.isEmpty()) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '*' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (!literal.isEmpty()) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            return Pattern.compile(regex.toString());
+        }
+    }
+}
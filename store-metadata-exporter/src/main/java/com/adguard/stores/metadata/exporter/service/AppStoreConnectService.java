@@ -4,62 +4,311 @@ import com.adguard.stores.appstoreconnect.api.*;
 import com.adguard.stores.appstoreconnect.model.*;
 import com.adguard.stores.appstoreconnect.ApiClient;
 import com.adguard.stores.appstoreconnect.ApiException;
+import com.adguard.stores.metadata.exporter.http.DecoratingHttpClientBuilder;
+import com.adguard.stores.metadata.exporter.jfr.InstrumentedObjectMapper;
+import com.adguard.stores.metadata.exporter.model.AppAssets;
 import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.AppReview;
+import com.adguard.stores.metadata.exporter.model.AppWatermark;
 import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.Signature;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.util.Base64;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 import java.nio.charset.StandardCharsets;
 
 public class AppStoreConnectService {
 
+    private static final Logger log = LoggerFactory.getLogger(AppStoreConnectService.class);
+
     private static final String BASE_URL = "https://api.appstoreconnect.apple.com";
 
+    // Maximum page size of the apps collection
+    private static final int APPS_PAGE_LIMIT = 200;
+
+    // Included versions per app; the live version is normally among the newest few, older
+    // apps with a truncated list fall back to a per-app request
+    private static final int PREFETCH_VERSIONS_LIMIT = 10;
+
+    // Maximum number of included app infos per app
+    private static final int PREFETCH_APP_INFOS_LIMIT = 50;
+
+    // Screenshot and preview sets per localization (one per display type) and included assets per set;
+    // a set holds at most 10 screenshots or 3 previews
+    private static final int ASSET_SETS_LIMIT = 50;
+    private static final int ASSETS_PER_SET_LIMIT = 10;
+
+    // Maximum page size of the customer reviews of an app
+    private static final int REVIEWS_PAGE_LIMIT = 200;
+
+    // In-app purchases, subscription groups or subscriptions per page, and included localizations per
+    // product; the App Store has fewer locales than that, so products are rarely completed separately
+    private static final int PRODUCTS_PAGE_LIMIT = 200;
+    private static final int PRODUCT_LOCALIZATIONS_LIMIT = 50;
+    // Tokens may be valid for up to 20 minutes; a run outlasting one gets a new token shortly before expiry
+    private static final Duration TOKEN_LIFETIME = Duration.ofMinutes(20);
+    private static final Duration TOKEN_RENEWAL_MARGIN = Duration.ofMinutes(2);
+
     private final ApiClient apiClient;
     private final String issuerId;
     private final String keyId;
     private final String privateKeyContent;
 
+    private List<String> locales;
+    private String jwtToken;
+    private Instant jwtTokenRenewAt;
+
     public AppStoreConnectService(String issuerId, String keyId, String privateKeyContent) throws Exception {
+        this(issuerId, keyId, privateKeyContent, UnaryOperator.identity());
+    }
+
+    /**
+     * @param httpClientDecorator wraps the HTTP client shared by all API calls, e.g. to add caching
+     */
+    public AppStoreConnectService(String issuerId, String keyId, String privateKeyContent,
+                                  UnaryOperator<HttpClient> httpClientDecorator) throws Exception {
         this.issuerId = issuerId;
         this.keyId = keyId;
         this.privateKeyContent = privateKeyContent;
+        // Signed up front so that an invalid key fails here rather than on the first request
+        renewJwtToken();
+        this.apiClient = createApiClient(this::currentJwtToken, httpClientDecorator);
+    }
 
-        String jwtToken = generateJwtToken();
+    private AppStoreConnectService(String jwtToken, UnaryOperator<HttpClient> httpClientDecorator) {
+        this.issuerId = null;
+        this.keyId = null;
+        this.privateKeyContent = null;
+        this.apiClient = createApiClient(() -> jwtToken, httpClientDecorator);
+    }
 
-        this.apiClient = new ApiClient();
-        this.apiClient.updateBaseUri(BASE_URL);
-        this.apiClient.setRequestInterceptor(builder -> {
-            builder.header("Authorization", "Bearer " + jwtToken);
+    /**
+     * Creates a service that sends a fixed token instead of signing one, e.g. when replaying recorded
+     * responses without credentials.
+     */
+    public static AppStoreConnectService withToken(String jwtToken, UnaryOperator<HttpClient> httpClientDecorator) {
+        return new AppStoreConnectService(jwtToken, httpClientDecorator);
+    }
+
+    /**
+     * Restricts fetched localizations to the given locales; {@code null} fetches all of them. The
+     * filter is applied by the API, so skipped locales are not downloaded at all.
+     */
+    public void setLocales(List<String> locales) {
+        this.locales = locales != null ? List.copyOf(locales) : null;
+    }
+
+    private static ApiClient createApiClient(Supplier<String> jwtToken, UnaryOperator<HttpClient> httpClientDecorator) {
+        ApiClient apiClient = new ApiClient();
+        apiClient.updateBaseUri(BASE_URL);
+        apiClient.setObjectMapper(new InstrumentedObjectMapper(apiClient.getObjectMapper(), "appstore"));
+        apiClient.setHttpClientBuilder(new DecoratingHttpClientBuilder(
+                ApiClient.createDefaultHttpClientBuilder(), httpClientDecorator));
+        apiClient.setRequestInterceptor(builder -> {
+            builder.header("Authorization", "Bearer " + jwtToken.get());
         });
+        return apiClient;
     }
 
-    public List<App> fetchAllApps() throws ApiException {
+    /**
+     * Lists all apps together with their app infos and live versions, up to 200 apps per request.
+     * Apps whose included relationships were truncated are completed with per-app requests.
+     */
+    public List<AppProbe> prefetchApps() throws ApiException {
+        return prefetchApps(AppSelector.all());
+    }
+
+    /**
+     * Same as {@link #prefetchApps()}, but only for the apps matched by the selector. The selection is
+     * pushed down to the API where possible and otherwise applied before any per-app request.
+     */
+    public List<AppProbe> prefetchApps(AppSelector selector) throws ApiException {
         AppsApi appsApi = new AppsApi(apiClient);
         // appsGetCollection has 56 parameters + optional headers
         AppsResponse response = appsApi.appsGetCollection(
-                null, null, null, null, null, null, null, null, null, null, // filters 1-10
-                null, null, null, null, null, null, null, null, null, null, // fields 11-20
-                null, null, null, null, null, null, null, null, null, null, // fields 21-30
-                null, null, null, null, null, null, null, null, null, null, // limits 31-40
-                null, null, null, null, null, null, null, null, null, null, // limits 41-50
-                null, null, null, null, null, null                          // limits 51-56
+                null,                                                        // filterName
+                selector.bundleIdFilter(),                                   // filterBundleId
+                selector.skuFilter(),                                        // filterSku
+                null, null, null, null, null, null, null,                    // filters 4-10
+                null, null,                                                  // exists, sort
+                List.of("bundleId", "sku", "appInfos", "appStoreVersions"),  // fieldsApps
+                null, null, null,
+                List.of("versionString", "appStoreState", "createdDate", "earliestReleaseDate"), // fieldsAppStoreVersions
+                null, null, null, null, null,
+                List.of("state", "appStoreState"),                           // fieldsAppInfos
+                null, null, null, null, null, null, null, null, null, null, null, null, null, // fields 24-36
+                APPS_PAGE_LIMIT,                                             // limit
+                List.of("appInfos", "appStoreVersions"),                     // include
+                null, null, null, null, null,
+                PREFETCH_APP_INFOS_LIMIT,                                    // limitAppInfos
+                null,
+                PREFETCH_VERSIONS_LIMIT,                                     // limitAppStoreVersions
+                null, null, null, null, null, null, null, null, null, null  // limits 47-56
         );
-        return response.getData();
+
+        List<AppProbe> probes = new ArrayList<>();
+        while (true) {
+            probes.addAll(toProbes(response, selector));
+            String next = response.getLinks() != null ? response.getLinks().getNext() : null;
+            if (next == null) {
+                return probes;
+            }
+            response = fetchPage(next, "appsGetCollection", new TypeReference<AppsResponse>() {});
+        }
+    }
+
+    private List<AppProbe> toProbes(AppsResponse response, AppSelector selector) throws ApiException {
+        Map<String, AppInfo> includedAppInfos = new HashMap<>();
+        Map<String, AppStoreVersion> includedVersions = new HashMap<>();
+        if (response.getIncluded() != null) {
+            for (var included : response.getIncluded()) {
+                if (included.getActualInstance() instanceof AppInfo appInfo) {
+                    includedAppInfos.put(appInfo.getId(), appInfo);
+                } else if (included.getActualInstance() instanceof AppStoreVersion version) {
+                    includedVersions.put(version.getId(), version);
+                }
+            }
+        }
+
+        List<AppProbe> probes = new ArrayList<>();
+        for (var app : response.getData()) {
+            if (!selector.matches(app.getAttributes().getBundleId(), app.getAttributes().getSku())) {
+                continue;
+            }
+            var relationships = app.getRelationships();
+            var appInfosRelationship = relationships != null ? relationships.getAppInfos() : null;
+            var versionsRelationship = relationships != null ? relationships.getAppStoreVersions() : null;
+
+            // A relationship without linkages, or with linkages missing from "included", is treated as
+            // truncated and completed with the per-app requests
+            List<AppInfo> appInfos = null;
+            if (appInfosRelationship != null && appInfosRelationship.getData() != null && !isTruncated(
+                    appInfosRelationship.getData().size(), appInfosRelationship.getMeta(), PREFETCH_APP_INFOS_LIMIT)) {
+                appInfos = new ArrayList<>();
+                for (var linkage : appInfosRelationship.getData()) {
+                    AppInfo appInfo = includedAppInfos.get(linkage.getId());
+                    if (appInfo == null) {
+                        appInfos = null;
+                        break;
+                    }
+                    appInfos.add(appInfo);
+                }
+            }
+            if (appInfos == null) {
+                appInfos = fetchAppInfos(app.getId());
+            }
+
+            AppStoreVersion liveVersion = null;
+            boolean versionsComplete = versionsRelationship != null && versionsRelationship.getData() != null
+                    && !isTruncated(versionsRelationship.getData().size(), versionsRelationship.getMeta(),
+                    PREFETCH_VERSIONS_LIMIT);
+            if (versionsRelationship != null && versionsRelationship.getData() != null) {
+                for (var linkage : versionsRelationship.getData()) {
+                    var version = includedVersions.get(linkage.getId());
+                    if (version == null) {
+                        versionsComplete = false;
+                    } else if (version.getAttributes() != null
+                            && version.getAttributes().getAppStoreState() == AppStoreVersionState.READY_FOR_SALE) {
+                        liveVersion = version;
+                        break;
+                    }
+                }
+            }
+            if (liveVersion == null && !versionsComplete) {
+                var liveVersions = fetchLiveAppStoreVersions(app.getId());
+                liveVersion = liveVersions.isEmpty() ? null : liveVersions.get(0);
+            }
+
+            probes.add(new AppProbe(app.getId(), app.getAttributes().getBundleId(), appInfos, liveVersion));
+        }
+        return probes;
+    }
+
+    private static boolean isTruncated(int included, PagingInformation meta, int limit) {
+        if (meta != null && meta.getPaging() != null && meta.getPaging().getTotal() != null) {
+            return meta.getPaging().getTotal() > included;
+        }
+        return included >= limit;
+    }
+
+    /**
+     * Follows a {@code links.next} URL through the same client, interceptors and object mapper as the
+     * generated API classes, which take no cursor parameter.
+     */
+    private <T> T fetchPage(String url, String operationId, TypeReference<T> type) throws ApiException {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(url))
+                .header("Accept", "application/json")
+                .GET();
+        if (apiClient.getReadTimeout() != null) {
+            requestBuilder.timeout(apiClient.getReadTimeout());
+        }
+        if (apiClient.getRequestInterceptor() != null) {
+            apiClient.getRequestInterceptor().accept(requestBuilder);
+        }
+        try {
+            HttpResponse<InputStream> response = apiClient.getHttpClient().send(
+                    requestBuilder.build(), HttpResponse.BodyHandlers.ofInputStream());
+            if (apiClient.getResponseInterceptor() != null) {
+                apiClient.getResponseInterceptor().accept(response);
+            }
+            try (InputStream body = response.body()) {
+                String responseBody = body == null ? "" : new String(body.readAllBytes(), StandardCharsets.UTF_8);
+                if (response.statusCode() / 100 != 2) {
+                    throw new ApiException(response.statusCode(),
+                            operationId + " call failed with: " + response.statusCode() + " - " + responseBody,
+                            response.headers(), responseBody);
+                }
+                return apiClient.getObjectMapper().readValue(responseBody, type);
+            }
+        } catch (IOException e) {
+            throw new ApiException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
     }
 
     public AppMetadata fetchAppMetadata(String appId, String bundleId) throws ApiException {
+        return fetchAppMetadata(probeApp(appId, bundleId));
+    }
+
+    /**
+     * Fetches the app infos and the live version of an app, which is enough to compute its
+     * {@link AppWatermark} without downloading any localizations.
+     */
+    public AppProbe probeApp(String appId, String bundleId) throws ApiException {
+        var appInfos = fetchAppInfos(appId);
+        var liveVersions = fetchLiveAppStoreVersions(appId);
+        return new AppProbe(appId, bundleId, appInfos, liveVersions.isEmpty() ? null : liveVersions.get(0));
+    }
+
+    /**
+     * Fetches localizations for an already probed app, reusing the probe results.
+     */
+    public AppMetadata fetchAppMetadata(AppProbe probe) throws ApiException {
         Map<String, LocalizationMetadata> localizationMap = new HashMap<>();
         String currentVersion = null;
 
         // Fetch AppInfo localizations
-        var appInfos = fetchAppInfos(appId);
-        for (var appInfo : appInfos) {
+        for (var appInfo : probe.getAppInfos()) {
             var appInfoLocalizations = fetchAppInfoLocalizations(appInfo.getId());
             for (var localization : appInfoLocalizations) {
                 var attrs = localization.getAttributes();
@@ -82,9 +331,8 @@ public class AppStoreConnectService {
         // Fetch latest live AppStoreVersion
         Instant versionCreatedDate = null;
         Instant versionReleasedDate = null;
-        var liveVersions = fetchLiveAppStoreVersions(appId);
-        if (!liveVersions.isEmpty()) {
-            var liveVersion = liveVersions.get(0);
+        var liveVersion = probe.getLiveVersion();
+        if (liveVersion != null) {
             currentVersion = liveVersion.getAttributes().getVersionString();
             var createdDate = liveVersion.getAttributes().getCreatedDate();
             if (createdDate != null) {
@@ -96,6 +344,7 @@ public class AppStoreConnectService {
             }
 
             var versionLocalizations = fetchAppStoreVersionLocalizations(liveVersion.getId());
+            probe.versionLocalizations = versionLocalizations;
             for (var localization : versionLocalizations) {
                 var attrs = localization.getAttributes();
                 String locale = attrs.getLocale();
@@ -115,9 +364,17 @@ public class AppStoreConnectService {
             }
         }
 
+        for (String locale : localizationMap.keySet()) {
+            log.atDebug()
+                    .addKeyValue("store", "appstore")
+                    .addKeyValue("app", probe.getBundleId())
+                    .addKeyValue("locale", locale)
+                    .log("Fetched localization");
+        }
+
         return AppMetadata.builder()
-                .appId(appId)
-                .bundleId(bundleId)
+                .appId(probe.getAppId())
+                .bundleId(probe.getBundleId())
                 .currentVersion(currentVersion)
                 .versionCreatedAt(versionCreatedDate)
                 .versionReleasedAt(versionReleasedDate)
@@ -125,6 +382,701 @@ public class AppStoreConnectService {
                 .build();
     }
 
+    /**
+     * Lists the screenshots and app previews of the live version of a probed app. Each localization
+     * takes two requests, one for the screenshot sets and one for the preview sets, with the assets of
+     * every set included. The version localizations are listed only if {@link #fetchAppMetadata(AppProbe)}
+     * has not already listed them for the probe.
+     */
+    public AppAssets fetchAppAssets(AppProbe probe) throws ApiException {
+        List<AppAssets.Asset> assets = new ArrayList<>();
+        var liveVersion = probe.getLiveVersion();
+        if (liveVersion != null) {
+            var versionLocalizations = probe.versionLocalizations != null
+                    ? probe.versionLocalizations
+                    : fetchAppStoreVersionLocalizations(liveVersion.getId());
+            // Not needed any more; probes of all apps are kept until the end of the run
+            probe.versionLocalizations = null;
+            for (var localization : versionLocalizations) {
+                String locale = localization.getAttributes().getLocale();
+                assets.addAll(fetchScreenshots(localization.getId(), locale));
+                assets.addAll(fetchPreviews(localization.getId(), locale));
+            }
+        }
+        return AppAssets.builder()
+                .appId(probe.getAppId())
+                .bundleId(probe.getBundleId())
+                .currentVersion(liveVersion != null ? liveVersion.getAttributes().getVersionString() : null)
+                .assets(assets)
+                .build();
+    }
+
+    private List<AppAssets.Asset> fetchScreenshots(String localizationId, String locale) throws ApiException {
+        AppStoreVersionLocalizationsApi api = new AppStoreVersionLocalizationsApi(apiClient);
+        // appStoreVersionLocalizationsAppScreenshotSetsGetToManyRelated(id, filterScreenshotDisplayType,
+        //   filterAppCustomProductPageLocalization, filterAppStoreVersionExperimentTreatmentLocalization,
+        //   fieldsAppScreenshotSets, fieldsAppStoreVersionLocalizations, fieldsAppCustomProductPageLocalizations,
+        //   fieldsAppStoreVersionExperimentTreatmentLocalizations, fieldsAppScreenshots, limit, include,
+        //   limitAppScreenshots)
+        AppScreenshotSetsResponse response = api.appStoreVersionLocalizationsAppScreenshotSetsGetToManyRelated(
+                localizationId, null, null, null,
+                List.of("screenshotDisplayType", "appScreenshots"),
+                null, null, null,
+                List.of("fileSize", "fileName", "sourceFileChecksum", "imageAsset"),
+                ASSET_SETS_LIMIT, List.of("appScreenshots"), ASSETS_PER_SET_LIMIT
+        );
+
+        Map<String, AppScreenshot> screenshots = new HashMap<>();
+        if (response.getIncluded() != null) {
+            for (var included : response.getIncluded()) {
+                if (included.getActualInstance() instanceof AppScreenshot screenshot) {
+                    screenshots.put(screenshot.getId(), screenshot);
+                }
+            }
+        }
+
+        List<AppAssets.Asset> assets = new ArrayList<>();
+        for (AppScreenshotSet set : response.getData()) {
+            String displayType = set.getAttributes() != null
+                    ? Objects.toString(set.getAttributes().getScreenshotDisplayType(), null)
+                    : null;
+            if (set.getRelationships() == null || set.getRelationships().getAppScreenshots() == null
+                    || set.getRelationships().getAppScreenshots().getData() == null) {
+                continue;
+            }
+            int position = 0;
+            for (var reference : set.getRelationships().getAppScreenshots().getData()) {
+                AppScreenshot screenshot = screenshots.get(reference.getId());
+                position++;
+                if (screenshot == null || screenshot.getAttributes() == null) {
+                    continue;
+                }
+                var attrs = screenshot.getAttributes();
+                assets.add(AppAssets.Asset.builder()
+                        .id(screenshot.getId())
+                        .locale(locale)
+                        .kind("screenshot")
+                        .displayType(displayType)
+                        .position(position)
+                        .fileName(attrs.getFileName())
+                        .fileSize(attrs.getFileSize())
+                        .sourceFileChecksum(attrs.getSourceFileChecksum())
+                        .width(attrs.getImageAsset() != null ? attrs.getImageAsset().getWidth() : null)
+                        .height(attrs.getImageAsset() != null ? attrs.getImageAsset().getHeight() : null)
+                        .imageUrl(imageUrl(attrs.getImageAsset(), attrs.getFileName()))
+                        .build());
+            }
+        }
+        return assets;
+    }
+
+    private List<AppAssets.Asset> fetchPreviews(String localizationId, String locale) throws ApiException {
+        AppStoreVersionLocalizationsApi api = new AppStoreVersionLocalizationsApi(apiClient);
+        // appStoreVersionLocalizationsAppPreviewSetsGetToManyRelated(id, filterPreviewType,
+        //   filterAppCustomProductPageLocalization, filterAppStoreVersionExperimentTreatmentLocalization,
+        //   fieldsAppPreviewSets, fieldsAppStoreVersionLocalizations, fieldsAppCustomProductPageLocalizations,
+        //   fieldsAppStoreVersionExperimentTreatmentLocalizations, fieldsAppPreviews, limit, include,
+        //   limitAppPreviews)
+        AppPreviewSetsResponse response = api.appStoreVersionLocalizationsAppPreviewSetsGetToManyRelated(
+                localizationId, null, null, null,
+                List.of("previewType", "appPreviews"),
+                null, null, null,
+                List.of("fileSize", "fileName", "sourceFileChecksum", "previewImage", "videoUrl"),
+                ASSET_SETS_LIMIT, List.of("appPreviews"), ASSETS_PER_SET_LIMIT
+        );
+
+        Map<String, AppPreview> previews = new HashMap<>();
+        if (response.getIncluded() != null) {
+            for (var included : response.getIncluded()) {
+                if (included.getActualInstance() instanceof AppPreview preview) {
+                    previews.put(preview.getId(), preview);
+                }
+            }
+        }
+
+        List<AppAssets.Asset> assets = new ArrayList<>();
+        for (AppPreviewSet set : response.getData()) {
+            String previewType = set.getAttributes() != null
+                    ? Objects.toString(set.getAttributes().getPreviewType(), null)
+                    : null;
+            if (set.getRelationships() == null || set.getRelationships().getAppPreviews() == null
+                    || set.getRelationships().getAppPreviews().getData() == null) {
+                continue;
+            }
+            int position = 0;
+            for (var reference : set.getRelationships().getAppPreviews().getData()) {
+                AppPreview preview = previews.get(reference.getId());
+                position++;
+                if (preview == null || preview.getAttributes() == null) {
+                    continue;
+                }
+                var attrs = preview.getAttributes();
+                assets.add(AppAssets.Asset.builder()
+                        .id(preview.getId())
+                        .locale(locale)
+                        .kind("preview")
+                        .displayType(previewType)
+                        .position(position)
+                        .fileName(attrs.getFileName())
+                        .fileSize(attrs.getFileSize())
+                        .sourceFileChecksum(attrs.getSourceFileChecksum())
+                        .width(attrs.getPreviewImage() != null ? attrs.getPreviewImage().getWidth() : null)
+                        .height(attrs.getPreviewImage() != null ? attrs.getPreviewImage().getHeight() : null)
+                        // The poster frame; the video itself is only served as a streaming playlist
+                        .imageUrl(imageUrl(attrs.getPreviewImage(), "preview.png"))
+                        .videoUrl(attrs.getVideoUrl())
+                        .build());
+            }
+        }
+        return assets;
+    }
+
+    /**
+     * Expands the {@code {w}x{h}bb.{f}} template of an image asset to its full size, in the format of
+     * the uploaded file.
+     */
+    private static String imageUrl(ImageAsset image, String fileName) {
+        if (image == null || image.getTemplateUrl() == null || image.getWidth() == null || image.getHeight() == null) {
+            return null;
+        }
+        String extension = fileName != null && fileName.toLowerCase(Locale.ROOT).matches(".*\\.jpe?g") ? "jpg" : "png";
+        return image.getTemplateUrl()
+                .replace("{w}", image.getWidth().toString())
+                .replace("{h}", image.getHeight().toString())
+                .replace("{f}", extension);
+    }
+
+    /**
+     * Lists the customer reviews of an app newest first, with their developer responses, and hands them
+     * to the handler one page at a time. Listing stops when the handler declines the next page, so a
+     * caller that stops at the reviews it already has only pays for the pages holding new reviews.
+     */
+    public void listReviews(String appId, ReviewPageHandler handler) throws ApiException, IOException {
+        AppsApi api = new AppsApi(apiClient);
+        // appsCustomerReviewsGetToManyRelated(id, filterTerritory, filterRating, existsPublishedResponse, sort,
+        //   fieldsCustomerReviews, fieldsCustomerReviewResponses, limit, include)
+        CustomerReviewsResponse response = api.appsCustomerReviewsGetToManyRelated(
+                appId, null, null, null,
+                List.of("-createdDate"),
+                List.of("rating", "title", "body", "reviewerNickname", "createdDate", "territory", "response"),
+                List.of("responseBody", "lastModifiedDate", "state"),
+                REVIEWS_PAGE_LIMIT, List.of("response")
+        );
+
+        int pages = 1;
+        int reviews = 0;
+        while (true) {
+            Map<String, CustomerReviewResponseV1> responses = new HashMap<>();
+            if (response.getIncluded() != null) {
+                for (var included : response.getIncluded()) {
+                    responses.put(included.getId(), included);
+                }
+            }
+            List<AppReview> page = new ArrayList<>();
+            for (CustomerReview review : response.getData()) {
+                page.add(toAppReview(review, responses));
+            }
+            reviews += page.size();
+            String next = response.getLinks() != null ? response.getLinks().getNext() : null;
+            if (!handler.onPage(page) || next == null) {
+                logReviewPages(appId, pages, reviews);
+                return;
+            }
+            response = fetchPage(next, "appsCustomerReviewsGetToManyRelated",
+                    new TypeReference<CustomerReviewsResponse>() {});
+            pages++;
+        }
+    }
+
+    private static AppReview toAppReview(CustomerReview review, Map<String, CustomerReviewResponseV1> responses) {
+        var attrs = review.getAttributes();
+        AppReview.AppReviewBuilder builder = AppReview.builder().id(review.getId());
+        if (attrs != null) {
+            builder.territory(attrs.getTerritory() != null ? attrs.getTerritory().getValue() : null)
+                    .rating(attrs.getRating())
+                    .title(attrs.getTitle())
+                    .body(attrs.getBody())
+                    .reviewerNickname(attrs.getReviewerNickname())
+                    .createdAt(attrs.getCreatedDate() != null ? attrs.getCreatedDate().toInstant() : null);
+        }
+        var relationship = review.getRelationships() != null ? review.getRelationships().getResponse() : null;
+        var response = relationship != null && relationship.getData() != null
+                ? responses.get(relationship.getData().getId())
+                : null;
+        if (response != null && response.getAttributes() != null) {
+            var responseAttrs = response.getAttributes();
+            builder.response(AppReview.Response.builder()
+                    .id(response.getId())
+                    .body(responseAttrs.getResponseBody())
+                    .lastModifiedAt(responseAttrs.getLastModifiedDate() != null
+                            ? responseAttrs.getLastModifiedDate().toInstant()
+                            : null)
+                    .state(Objects.toString(responseAttrs.getState(), null))
+                    .build());
+        }
+        return builder.build();
+    }
+
+    private static void logReviewPages(String appId, int pages, int reviews) {
+        log.atDebug()
+                .addKeyValue("store", "appstore")
+                .addKeyValue("app", appId)
+                .addKeyValue("pages", pages)
+                .addKeyValue("reviews", reviews)
+                .log("Listed reviews");
+    }
+
+    /**
+     * Adds the display names and descriptions of the app's in-app purchases, subscription groups and
+     * subscriptions to its localizations, replacing any added before.
+     * <p>
+     * In-app purchases and subscription groups are listed with their localizations included, 200 per
+     * page, and so are the subscriptions of every group; the request count grows with the number of
+     * pages, not with products times locales. Independent listings run in parallel on the executor, as
+     * do the requests for the few products whose included localizations were truncated.
+     */
+    public void fetchInAppPurchases(AppMetadata appMetadata, ExecutorService executor) throws ApiException {
+        String appId = appMetadata.getAppId();
+        List<LocalizedProduct> groups;
+        List<LocalizedProduct> inAppPurchases;
+        List<LocalizedProduct> subscriptions = new ArrayList<>();
+        Future<List<LocalizedProduct>> inAppPurchasesFuture = executor.submit(() -> listInAppPurchases(appId));
+        List<Future<List<LocalizedProduct>>> subscriptionFutures = new ArrayList<>();
+        try {
+            groups = listSubscriptionGroups(appId);
+            for (LocalizedProduct group : groups) {
+                subscriptionFutures.add(executor.submit(() -> listSubscriptions(group.id())));
+            }
+            inAppPurchases = await(inAppPurchasesFuture);
+            for (var future : subscriptionFutures) {
+                subscriptions.addAll(await(future));
+            }
+        } finally {
+            // Stops the listings still paging when another one failed; finished ones are unaffected
+            inAppPurchasesFuture.cancel(true);
+            cancel(subscriptionFutures);
+        }
+
+        inAppPurchases = completeLocalizations(inAppPurchases, executor, this::fetchInAppPurchaseLocalizations);
+        groups = completeLocalizations(groups, executor, this::fetchSubscriptionGroupLocalizations);
+        subscriptions = completeLocalizations(subscriptions, executor, this::fetchSubscriptionLocalizations);
+
+        // Localizations that only held products of an earlier run are dropped
+        List<LocalizationMetadata> localizations = new ArrayList<>();
+        if (appMetadata.getLocalizations() != null) {
+            for (LocalizationMetadata localization : appMetadata.getLocalizations()) {
+                localization.setInAppPurchases(null);
+                localization.setSubscriptions(null);
+                localization.setSubscriptionGroups(null);
+                if (localization.getAppInfo() != null || localization.getVersion() != null) {
+                    localizations.add(localization);
+                }
+            }
+        }
+        appMetadata.setLocalizations(localizations);
+
+        for (LocalizedProduct product : inAppPurchases) {
+            for (LocalizedText text : product.localizations()) {
+                LocalizationMetadata localization = localization(appMetadata, text.locale());
+                if (localization != null) {
+                    if (localization.getInAppPurchases() == null) {
+                        localization.setInAppPurchases(new TreeMap<>());
+                    }
+                    localization.getInAppPurchases().put(product.key(), LocalizationMetadata.ProductData.builder()
+                            .name(text.name())
+                            .description(text.description())
+                            .build());
+                }
+            }
+        }
+        for (LocalizedProduct product : subscriptions) {
+            for (LocalizedText text : product.localizations()) {
+                LocalizationMetadata localization = localization(appMetadata, text.locale());
+                if (localization != null) {
+                    if (localization.getSubscriptions() == null) {
+                        localization.setSubscriptions(new TreeMap<>());
+                    }
+                    localization.getSubscriptions().put(product.key(), LocalizationMetadata.ProductData.builder()
+                            .name(text.name())
+                            .description(text.description())
+                            .build());
+                }
+            }
+        }
+        for (LocalizedProduct group : groups) {
+            for (LocalizedText text : group.localizations()) {
+                LocalizationMetadata localization = localization(appMetadata, text.locale());
+                if (localization != null) {
+                    if (localization.getSubscriptionGroups() == null) {
+                        localization.setSubscriptionGroups(new TreeMap<>());
+                    }
+                    localization.getSubscriptionGroups().put(group.key(),
+                            LocalizationMetadata.SubscriptionGroupData.builder()
+                                    .name(text.name())
+                                    .customAppName(text.description())
+                                    .build());
+                }
+            }
+        }
+
+        log.atDebug()
+                .addKeyValue("store", "appstore")
+                .addKeyValue("app", appMetadata.getBundleId())
+                .addKeyValue("inAppPurchases", inAppPurchases.size())
+                .addKeyValue("subscriptionGroups", groups.size())
+                .addKeyValue("subscriptions", subscriptions.size())
+                .log("Fetched in-app purchases");
+    }
+
+    /**
+     * @return the localization of the app for the locale, created if needed, or {@code null} if the
+     *         locale is not exported
+     */
+    private LocalizationMetadata localization(AppMetadata appMetadata, String locale) {
+        if (locale == null || (locales != null && !locales.contains(locale))) {
+            return null;
+        }
+        for (LocalizationMetadata localization : appMetadata.getLocalizations()) {
+            if (locale.equals(localization.getLocale())) {
+                return localization;
+            }
+        }
+        LocalizationMetadata localization = LocalizationMetadata.builder().locale(locale).build();
+        appMetadata.getLocalizations().add(localization);
+        return localization;
+    }
+
+    private List<LocalizedProduct> listInAppPurchases(String appId) throws ApiException {
+        AppsApi api = new AppsApi(apiClient);
+        // appsInAppPurchasesV2GetToManyRelated(id, filterProductId, filterName, filterState,
+        //   filterInAppPurchaseType, sort, fieldsInAppPurchases, fieldsInAppPurchaseLocalizations,
+        //   fieldsInAppPurchaseContents, fieldsInAppPurchaseAppStoreReviewScreenshots, fieldsPromotedPurchases,
+        //   fieldsInAppPurchasePriceSchedules, fieldsInAppPurchaseAvailabilities, fieldsInAppPurchaseImages,
+        //   fieldsInAppPurchaseOfferCodes, limit, include, limitInAppPurchaseLocalizations, limitImages,
+        //   limitOfferCodes)
+        InAppPurchasesV2Response response = api.appsInAppPurchasesV2GetToManyRelated(
+                appId, null, null, null, null, null,
+                List.of("productId", "inAppPurchaseLocalizations"),
+                List.of("locale", "name", "description"),
+                null, null, null, null, null, null, null,
+                PRODUCTS_PAGE_LIMIT, List.of("inAppPurchaseLocalizations"), PRODUCT_LOCALIZATIONS_LIMIT, null, null
+        );
+
+        List<LocalizedProduct> products = new ArrayList<>();
+        while (true) {
+            Map<String, LocalizedText> texts = new HashMap<>();
+            if (response.getIncluded() != null) {
+                for (var included : response.getIncluded()) {
+                    if (included.getActualInstance() instanceof InAppPurchaseLocalization localization
+                            && localization.getAttributes() != null) {
+                        var attrs = localization.getAttributes();
+                        texts.put(localization.getId(),
+                                new LocalizedText(attrs.getLocale(), attrs.getName(), attrs.getDescription()));
+                    }
+                }
+            }
+            for (InAppPurchaseV2 inAppPurchase : response.getData()) {
+                var relationship = inAppPurchase.getRelationships() != null
+                        ? inAppPurchase.getRelationships().getInAppPurchaseLocalizations()
+                        : null;
+                var data = relationship != null && relationship.getData() != null
+                        ? relationship.getData()
+                        : List.<InAppPurchaseV2RelationshipsInAppPurchaseLocalizationsDataInner>of();
+                products.add(new LocalizedProduct(
+                        inAppPurchase.getId(),
+                        inAppPurchase.getAttributes() != null ? inAppPurchase.getAttributes().getProductId() : null,
+                        data.stream().map(reference -> texts.get(reference.getId())).filter(Objects::nonNull).toList(),
+                        relationship != null
+                                && isTruncated(data.size(), relationship.getMeta(), PRODUCT_LOCALIZATIONS_LIMIT)));
+            }
+            String next = response.getLinks() != null ? response.getLinks().getNext() : null;
+            if (next == null) {
+                return products;
+            }
+            response = fetchPage(next, "appsInAppPurchasesV2GetToManyRelated",
+                    new TypeReference<InAppPurchasesV2Response>() {});
+        }
+    }
+
+    private List<LocalizedProduct> listSubscriptionGroups(String appId) throws ApiException {
+        AppsApi api = new AppsApi(apiClient);
+        // appsSubscriptionGroupsGetToManyRelated(id, filterReferenceName, filterSubscriptionsState, sort,
+        //   fieldsSubscriptionGroups, fieldsSubscriptions, fieldsSubscriptionGroupLocalizations, limit, include,
+        //   limitSubscriptions, limitSubscriptionGroupLocalizations)
+        SubscriptionGroupsResponse response = api.appsSubscriptionGroupsGetToManyRelated(
+                appId, null, null, null,
+                List.of("referenceName", "subscriptionGroupLocalizations"),
+                null,
+                List.of("locale", "name", "customAppName"),
+                PRODUCTS_PAGE_LIMIT, List.of("subscriptionGroupLocalizations"), null, PRODUCT_LOCALIZATIONS_LIMIT
+        );
+
+        List<LocalizedProduct> groups = new ArrayList<>();
+        while (true) {
+            Map<String, LocalizedText> texts = new HashMap<>();
+            if (response.getIncluded() != null) {
+                for (var included : response.getIncluded()) {
+                    if (included.getActualInstance() instanceof SubscriptionGroupLocalization localization
+                            && localization.getAttributes() != null) {
+                        var attrs = localization.getAttributes();
+                        texts.put(localization.getId(),
+                                new LocalizedText(attrs.getLocale(), attrs.getName(), attrs.getCustomAppName()));
+                    }
+                }
+            }
+            for (SubscriptionGroup group : response.getData()) {
+                var relationship = group.getRelationships() != null
+                        ? group.getRelationships().getSubscriptionGroupLocalizations()
+                        : null;
+                var data = relationship != null && relationship.getData() != null
+                        ? relationship.getData()
+                        : List.<SubscriptionGroupRelationshipsSubscriptionGroupLocalizationsDataInner>of();
+                groups.add(new LocalizedProduct(
+                        group.getId(),
+                        group.getAttributes() != null ? group.getAttributes().getReferenceName() : null,
+                        data.stream().map(reference -> texts.get(reference.getId())).filter(Objects::nonNull).toList(),
+                        relationship != null
+                                && isTruncated(data.size(), relationship.getMeta(), PRODUCT_LOCALIZATIONS_LIMIT)));
+            }
+            String next = response.getLinks() != null ? response.getLinks().getNext() : null;
+            if (next == null) {
+                return groups;
+            }
+            response = fetchPage(next, "appsSubscriptionGroupsGetToManyRelated",
+                    new TypeReference<SubscriptionGroupsResponse>() {});
+        }
+    }
+
+    private List<LocalizedProduct> listSubscriptions(String groupId) throws ApiException {
+        SubscriptionGroupsApi api = new SubscriptionGroupsApi(apiClient);
+        // subscriptionGroupsSubscriptionsGetToManyRelated has 26 parameters:
+        // id, filterProductId, filterName, filterState, sort, fieldsSubscriptions, fieldsSubscriptionLocalizations,
+        // 10 more fields, limit, include, limitSubscriptionLocalizations, 6 more limits
+        SubscriptionsResponse response = api.subscriptionGroupsSubscriptionsGetToManyRelated(
+                groupId, null, null, null, null,
+                List.of("productId", "subscriptionLocalizations"),
+                List.of("locale", "name", "description"),
+                null, null, null, null, null, null, null, null, null, null, // fields
+                PRODUCTS_PAGE_LIMIT, List.of("subscriptionLocalizations"), PRODUCT_LOCALIZATIONS_LIMIT,
+                null, null, null, null, null, null                          // limits
+        );
+
+        List<LocalizedProduct> subscriptions = new ArrayList<>();
+        while (true) {
+            Map<String, LocalizedText> texts = new HashMap<>();
+            if (response.getIncluded() != null) {
+                for (var included : response.getIncluded()) {
+                    if (included.getActualInstance() instanceof SubscriptionLocalization localization
+                            && localization.getAttributes() != null) {
+                        var attrs = localization.getAttributes();
+                        texts.put(localization.getId(),
+                                new LocalizedText(attrs.getLocale(), attrs.getName(), attrs.getDescription()));
+                    }
+                }
+            }
+            for (Subscription subscription : response.getData()) {
+                var relationship = subscription.getRelationships() != null
+                        ? subscription.getRelationships().getSubscriptionLocalizations()
+                        : null;
+                var data = relationship != null && relationship.getData() != null
+                        ? relationship.getData()
+                        : List.<SubscriptionRelationshipsSubscriptionLocalizationsDataInner>of();
+                subscriptions.add(new LocalizedProduct(
+                        subscription.getId(),
+                        subscription.getAttributes() != null ? subscription.getAttributes().getProductId() : null,
+                        data.stream().map(reference -> texts.get(reference.getId())).filter(Objects::nonNull).toList(),
+                        relationship != null
+                                && isTruncated(data.size(), relationship.getMeta(), PRODUCT_LOCALIZATIONS_LIMIT)));
+            }
+            String next = response.getLinks() != null ? response.getLinks().getNext() : null;
+            if (next == null) {
+                return subscriptions;
+            }
+            response = fetchPage(next, "subscriptionGroupsSubscriptionsGetToManyRelated",
+                    new TypeReference<SubscriptionsResponse>() {});
+        }
+    }
+
+    private List<LocalizedText> fetchInAppPurchaseLocalizations(String inAppPurchaseId) throws ApiException {
+        InAppPurchasesApi api = new InAppPurchasesApi(apiClient);
+        // inAppPurchasesV2InAppPurchaseLocalizationsGetToManyRelated(id, fieldsInAppPurchaseLocalizations,
+        //   fieldsInAppPurchases, limit, include)
+        InAppPurchaseLocalizationsResponse response = api.inAppPurchasesV2InAppPurchaseLocalizationsGetToManyRelated(
+                inAppPurchaseId, List.of("locale", "name", "description"), null, PRODUCTS_PAGE_LIMIT, null
+        );
+        return response.getData().stream()
+                .filter(localization -> localization.getAttributes() != null)
+                .map(localization -> new LocalizedText(localization.getAttributes().getLocale(),
+                        localization.getAttributes().getName(), localization.getAttributes().getDescription()))
+                .toList();
+    }
+
+    private List<LocalizedText> fetchSubscriptionGroupLocalizations(String groupId) throws ApiException {
+        SubscriptionGroupsApi api = new SubscriptionGroupsApi(apiClient);
+        // subscriptionGroupsSubscriptionGroupLocalizationsGetToManyRelated(id, fieldsSubscriptionGroupLocalizations,
+        //   fieldsSubscriptionGroups, limit, include)
+        SubscriptionGroupLocalizationsResponse response =
+                api.subscriptionGroupsSubscriptionGroupLocalizationsGetToManyRelated(
+                        groupId, List.of("locale", "name", "customAppName"), null, PRODUCTS_PAGE_LIMIT, null
+                );
+        return response.getData().stream()
+                .filter(localization -> localization.getAttributes() != null)
+                .map(localization -> new LocalizedText(localization.getAttributes().getLocale(),
+                        localization.getAttributes().getName(), localization.getAttributes().getCustomAppName()))
+                .toList();
+    }
+
+    private List<LocalizedText> fetchSubscriptionLocalizations(String subscriptionId) throws ApiException {
+        SubscriptionsApi api = new SubscriptionsApi(apiClient);
+        // subscriptionsSubscriptionLocalizationsGetToManyRelated(id, fieldsSubscriptionLocalizations,
+        //   fieldsSubscriptions, limit, include)
+        SubscriptionLocalizationsResponse response = api.subscriptionsSubscriptionLocalizationsGetToManyRelated(
+                subscriptionId, List.of("locale", "name", "description"), null, PRODUCTS_PAGE_LIMIT, null
+        );
+        return response.getData().stream()
+                .filter(localization -> localization.getAttributes() != null)
+                .map(localization -> new LocalizedText(localization.getAttributes().getLocale(),
+                        localization.getAttributes().getName(), localization.getAttributes().getDescription()))
+                .toList();
+    }
+
+    /**
+     * Replaces the truncated localizations of products with the complete ones, fetched in parallel.
+     */
+    private static List<LocalizedProduct> completeLocalizations(List<LocalizedProduct> products,
+                                                                ExecutorService executor,
+                                                                LocalizationFetcher fetcher) throws ApiException {
+        Map<LocalizedProduct, Future<List<LocalizedText>>> futures = new LinkedHashMap<>();
+        for (LocalizedProduct product : products) {
+            if (product.truncated()) {
+                futures.put(product, executor.submit(() -> fetcher.fetch(product.id())));
+            }
+        }
+        if (futures.isEmpty()) {
+            return products;
+        }
+        List<LocalizedProduct> completed = new ArrayList<>();
+        try {
+            for (LocalizedProduct product : products) {
+                var future = futures.get(product);
+                completed.add(future == null ? product
+                        : new LocalizedProduct(product.id(), product.key(), await(future), false));
+            }
+        } finally {
+            cancel(futures.values());
+        }
+        return completed;
+    }
+
+    private static void cancel(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws ApiException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ApiException apiException) {
+                throw apiException;
+            }
+            throw new ApiException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
+    /**
+     * An in-app purchase, subscription or subscription group: its id, the product id or reference name
+     * it is exported under, and its localizations, which are incomplete if {@code truncated}.
+     */
+    private record LocalizedProduct(String id, String key, List<LocalizedText> localizations, boolean truncated) {
+    }
+
+    /**
+     * Display name and description of a product in one locale; for a subscription group the
+     * description holds the custom app name.
+     */
+    private record LocalizedText(String locale, String name, String description) {
+    }
+
+    private interface LocalizationFetcher {
+        List<LocalizedText> fetch(String id) throws ApiException;
+    }
+
+    /**
+     * Receives the reviews listed by {@link #listReviews(String, ReviewPageHandler)}.
+     */
+    @FunctionalInterface
+    public interface ReviewPageHandler {
+        /**
+         * @param newestFirst the reviews of one page, newest first
+         * @return whether to list the next page
+         */
+        boolean onPage(List<AppReview> newestFirst) throws IOException;
+    }
+
+    /**
+     * Results of {@link #probeApp(String, String)} or {@link #prefetchApps()}.
+     */
+    public static class AppProbe {
+        private final String appId;
+        private final String bundleId;
+        private final List<AppInfo> appInfos;
+        private final AppStoreVersion liveVersion;
+        // Localizations of the live version listed by fetchAppMetadata, kept for fetchAppAssets
+        private List<AppStoreVersionLocalization> versionLocalizations;
+
+        AppProbe(String appId, String bundleId, List<AppInfo> appInfos, AppStoreVersion liveVersion) {
+            this.appId = appId;
+            this.bundleId = bundleId;
+            this.appInfos = appInfos;
+            this.liveVersion = liveVersion;
+        }
+
+        public String getAppId() {
+            return appId;
+        }
+
+        public String getBundleId() {
+            return bundleId;
+        }
+
+        public List<AppInfo> getAppInfos() {
+            return appInfos;
+        }
+
+        /**
+         * @return the latest live version, or {@code null} if the app has never been released
+         */
+        public AppStoreVersion getLiveVersion() {
+            return liveVersion;
+        }
+
+        public AppWatermark toWatermark() {
+            var watermark = AppWatermark.builder()
+                    .appInfos(appInfos.stream()
+                            .map(appInfo -> AppWatermark.AppInfoState.builder()
+                                    .id(appInfo.getId())
+                                    .state(appInfo.getAttributes() != null
+                                            ? Objects.toString(appInfo.getAttributes().getState(), null)
+                                            : null)
+                                    .build())
+                            .sorted(Comparator.comparing(AppWatermark.AppInfoState::getId))
+                            .toList());
+            if (liveVersion != null) {
+                watermark.versionId(liveVersion.getId());
+                if (liveVersion.getAttributes() != null) {
+                    watermark.versionString(liveVersion.getAttributes().getVersionString())
+                            .appStoreState(Objects.toString(liveVersion.getAttributes().getAppStoreState(), null));
+                }
+            }
+            return watermark.build();
+        }
+    }
+
     private List<AppInfo> fetchAppInfos(String appId) throws ApiException {
         AppsApi api = new AppsApi(apiClient);
         // appsAppInfosGetToManyRelated(id, fieldsAppInfos, fieldsApps, fieldsAgeRatingDeclarations, 
@@ -140,7 +1092,7 @@ public class AppStoreConnectService {
         // appInfosAppInfoLocalizationsGetToManyRelated(id, filterLocale, fieldsAppInfoLocalizations, 
         //   fieldsAppInfos, limit, include)
         AppInfoLocalizationsResponse response = api.appInfosAppInfoLocalizationsGetToManyRelated(
-                appInfoId, null, null, null, null, null
+                appInfoId, locales, null, null, null, null
         );
         return response.getData();
     }
@@ -173,18 +1125,37 @@ public class AppStoreConnectService {
         // id, filterLocale, fieldsAppStoreVersionLocalizations, fieldsAppStoreVersions, fieldsAppScreenshotSets,
         // fieldsAppPreviewSets, fieldsAppKeywords, limit, include, limitAppScreenshotSets, limitAppPreviewSets, limitSearchKeywords
         AppStoreVersionLocalizationsResponse response = api.appStoreVersionsAppStoreVersionLocalizationsGetToManyRelated(
-                versionId, null, null, null, null, null, null, null, null, null, null, null
+                versionId, locales, null, null, null, null, null, null, null, null, null, null
         );
         return response.getData();
     }
 
-    private String generateJwtToken() throws Exception {
+    /**
+     * @return the signed token, renewed once it is about to expire; called for every request
+     */
+    private synchronized String currentJwtToken() {
+        if (!Instant.now().isBefore(jwtTokenRenewAt)) {
+            try {
+                renewJwtToken();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to sign App Store Connect token", e);
+            }
+        }
+        return jwtToken;
+    }
+
+    private synchronized void renewJwtToken() throws Exception {
+        Instant now = Instant.now();
+        jwtToken = generateJwtToken(now);
+        jwtTokenRenewAt = now.plus(TOKEN_LIFETIME).minus(TOKEN_RENEWAL_MARGIN);
+    }
+
+    private String generateJwtToken(Instant now) throws Exception {
         String formattedKey = formatPrivateKey(privateKeyContent);
         PrivateKey privateKey = parsePrivateKey(formattedKey);
 
-        Instant now = Instant.now();
         long iat = now.getEpochSecond();
-        long exp = now.plus(20, ChronoUnit.MINUTES).getEpochSecond();
+        long exp = now.plus(TOKEN_LIFETIME).getEpochSecond();
 
         // Build header
         String header = "{\"alg\":\"ES256\",\"kid\":\"" + keyId + "\",\"typ\":\"JWT\"}";
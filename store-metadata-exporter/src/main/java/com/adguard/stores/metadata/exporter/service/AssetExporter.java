@@ -0,0 +1,276 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import com.adguard.stores.metadata.exporter.model.AppAssets;
+import com.adguard.stores.metadata.exporter.model.RunSummary;
+import com.adguard.stores.metadata.exporter.sink.MetadataDocuments;
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Downloads screenshots and preview poster frames into {@code <assetsDir>/<store>/<bundleId>/}, one file
+ * per {@code <locale>/<screenshots|previews>/<displayType>/<position>.<ext>}, next to an
+ * {@code assets.json} manifest.
+ * <p>
+ * Image files are kept once in {@code <assetsDir>/.objects}, named by the checksum of the uploaded
+ * source file, and hard-linked into every place they are used; an asset whose object already exists is
+ * not downloaded again, and an image shared by several locales is downloaded and stored once. Downloads
+ * run in parallel and stream straight to disk. Objects no other file links to are removed on close.
+ */
+public class AssetExporter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AssetExporter.class);
+
+    private static final String OBJECTS_DIR = ".objects";
+    private static final String MANIFEST = "assets.json";
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(2);
+
+    private final Path assetsDir;
+    private final Path objectsDir;
+    private final boolean dryRun;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper = MetadataDocuments.createObjectMapper();
+    private final RunSummary.AssetCounts counts = new RunSummary.AssetCounts();
+    // Set when an asset was copied instead of linked, which leaves its object with a single link
+    private boolean copied;
+
+    /**
+     * @param dryRun only list the assets that would be downloaded and linked
+     */
+    public AssetExporter(Path assetsDir, int concurrency, boolean dryRun) {
+        this.assetsDir = assetsDir;
+        this.objectsDir = assetsDir.resolve(OBJECTS_DIR);
+        this.dryRun = dryRun;
+        this.httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency));
+    }
+
+    /**
+     * @return downloaded, reused and failed assets of all apps exported so far
+     */
+    public RunSummary.AssetCounts getCounts() {
+        return counts;
+    }
+
+    /**
+     * @return whether the assets of the version were exported completely by an earlier run, which makes
+     * listing them again unnecessary as long as the version is unchanged
+     */
+    public boolean isExported(String storeType, String bundleId, String currentVersion) {
+        Path manifestFile = assetsDir.resolve(storeType).resolve(bundleId).resolve(MANIFEST);
+        if (!Files.exists(manifestFile)) {
+            return false;
+        }
+        try {
+            AppAssets manifest = objectMapper.readValue(manifestFile.toFile(), AppAssets.class);
+            return Objects.equals(manifest.getCurrentVersion(), currentVersion) && manifest.getAssets() != null
+                    && manifest.getAssets().stream()
+                    .allMatch(asset -> asset.getImageUrl() == null || asset.getPath() != null);
+        } catch (IOException e) {
+            log.atWarn().addKeyValue("store", storeType).addKeyValue("app", bundleId)
+                    .log("Failed to read asset manifest: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Downloads the changed assets of an app, links all of them into place and removes the files of
+     * assets the app no longer has. Assets that fail to download are logged and left out of the tree.
+     */
+    public void export(String storeType, AppAssets appAssets) throws IOException {
+        Path appDir = assetsDir.resolve(storeType).resolve(appAssets.getBundleId());
+
+        // One object per checksum, even if several locales or display types use it
+        Map<String, AppAssets.Asset> objects = new LinkedHashMap<>();
+        for (AppAssets.Asset asset : appAssets.getAssets()) {
+            if (asset.getImageUrl() == null) {
+                continue;
+            }
+            asset.setPath(relativePath(asset));
+            objects.putIfAbsent(objectName(asset), asset);
+        }
+
+        Map<String, Future<Long>> downloads = new LinkedHashMap<>();
+        for (Map.Entry<String, AppAssets.Asset> entry : objects.entrySet()) {
+            Path object = objectsDir.resolve(entry.getKey());
+            if (Files.exists(object)) {
+                counts.setReused(counts.getReused() + 1);
+            } else if (dryRun) {
+                log.atInfo().addKeyValue("store", storeType).addKeyValue("app", appAssets.getBundleId())
+                        .addKeyValue("file", entry.getValue().getPath())
+                        .log("[DRY RUN] Would download asset");
+            } else {
+                downloads.put(entry.getKey(), executor.submit(() -> download(entry.getValue(), object)));
+            }
+        }
+
+        Set<String> failed = new HashSet<>();
+        for (Map.Entry<String, Future<Long>> download : downloads.entrySet()) {
+            try {
+                counts.setDownloadedBytes(counts.getDownloadedBytes() + download.getValue().get());
+                counts.setDownloaded(counts.getDownloaded() + 1);
+            } catch (ExecutionException e) {
+                failed.add(download.getKey());
+                counts.setFailed(counts.getFailed() + 1);
+                log.atWarn().addKeyValue("store", storeType).addKeyValue("app", appAssets.getBundleId())
+                        .addKeyValue("file", objects.get(download.getKey()).getPath())
+                        .log("Failed to download asset: {}", e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while downloading assets", e);
+            }
+        }
+        if (dryRun) {
+            return;
+        }
+
+        Set<Path> linked = new HashSet<>();
+        for (AppAssets.Asset asset : appAssets.getAssets()) {
+            if (asset.getPath() == null || failed.contains(objectName(asset))) {
+                asset.setPath(null);
+                continue;
+            }
+            Path target = appDir.resolve(asset.getPath());
+            link(objectsDir.resolve(objectName(asset)), target);
+            linked.add(target);
+        }
+        removeStaleFiles(appDir, linked);
+
+        byte[] manifest = objectMapper.writeValueAsBytes(appAssets);
+        Path manifestFile = appDir.resolve(MANIFEST);
+        Files.createDirectories(appDir);
+        if (!Files.exists(manifestFile) || !Arrays.equals(Files.readAllBytes(manifestFile), manifest)) {
+            Files.write(manifestFile, manifest);
+        }
+    }
+
+    /**
+     * Stops the downloads and removes the objects that no app links to any more.
+     */
+    @Override
+    public void close() throws IOException {
+        executor.shutdownNow();
+        if (dryRun || copied || !Files.isDirectory(objectsDir)
+                || !objectsDir.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(objectsDir)) {
+            for (Path object : files.filter(Files::isRegularFile).toList()) {
+                if ((Integer) Files.getAttribute(object, "unix:nlink") <= 1) {
+                    Files.delete(object);
+                }
+            }
+        }
+    }
+
+    private long download(AppAssets.Asset asset, Path object) throws IOException, InterruptedException {
+        Files.createDirectories(objectsDir);
+        Path tempFile = Files.createTempFile(objectsDir, "download-", ".tmp");
+        try (Span span = Span.begin("http", "GET asset")) {
+            span.arg("file", asset.getPath());
+            HttpRequest request = HttpRequest.newBuilder(URI.create(asset.getImageUrl()))
+                    .timeout(REQUEST_TIMEOUT)
+                    .GET()
+                    .build();
+            HttpResponse<Path> response = httpClient.send(request,
+                    HttpResponse.BodyHandlers.ofFile(tempFile));
+            span.arg("status", response.statusCode());
+            if (response.statusCode() / 100 != 2) {
+                throw new IOException("HTTP " + response.statusCode() + " for " + asset.getImageUrl());
+            }
+            long size = Files.size(tempFile);
+            span.arg("bytes", size);
+            Files.move(tempFile, object, StandardCopyOption.ATOMIC_MOVE);
+            return size;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private void link(Path object, Path target) throws IOException {
+        if (Files.exists(target) && Files.isSameFile(object, target)) {
+            return;
+        }
+        Files.createDirectories(target.getParent());
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, object);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // File systems without hard links
+            Files.copy(object, target);
+            copied = true;
+        }
+    }
+
+    private static void removeStaleFiles(Path appDir, Set<Path> linked) throws IOException {
+        if (!Files.isDirectory(appDir)) {
+            return;
+        }
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(appDir)) {
+            paths = new ArrayList<>(walk.sorted(Comparator.reverseOrder()).toList());
+        }
+        Path manifest = appDir.resolve(MANIFEST);
+        for (Path path : paths) {
+            if (Files.isDirectory(path)) {
+                if (!path.equals(appDir)) {
+                    try (Stream<Path> children = Files.list(path)) {
+                        if (children.findAny().isEmpty()) {
+                            Files.delete(path);
+                        }
+                    }
+                }
+            } else if (!linked.contains(path) && !path.equals(manifest)) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private static String relativePath(AppAssets.Asset asset) {
+        return String.format("%s/%s/%s/%02d.%s", asset.getLocale(),
+                "preview".equals(asset.getKind()) ? "previews" : "screenshots",
+                asset.getDisplayType(), asset.getPosition(), extension(asset));
+    }
+
+    private static String objectName(AppAssets.Asset asset) {
+        String key = asset.getSourceFileChecksum() != null ? asset.getSourceFileChecksum() : asset.getId();
+        // A preview's poster frame is a different image than the uploaded video with the same checksum
+        String prefix = "preview".equals(asset.getKind()) ? "preview-" : "";
+        return prefix + key.replaceAll("[^A-Za-z0-9_-]", "_") + "." + extension(asset);
+    }
+
+    private static String extension(AppAssets.Asset asset) {
+        return asset.getImageUrl() != null && asset.getImageUrl().endsWith(".jpg") ? "jpg" : "png";
+    }
+}
@@ -0,0 +1,175 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.sink.MetadataDocuments;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Records every exported (store, app) unit of a run in an NDJSON file, so a run that dies halfway can
+ * be resumed without fetching the completed apps again.
+ * <p>
+ * The first line holds the start time of the journal and a fingerprint of the options that affect the
+ * fetched metadata. Every further line holds one unit: the store, the app id, the exported metadata
+ * and its SHA-256 hash. Lines are flushed as they are written; a line cut off by a crash, or whose hash
+ * does not match its metadata, is ignored and the app is fetched again.
+ */
+public class CheckpointJournal implements Closeable {
+
+    private final Path journalFile;
+    private final ObjectMapper objectMapper = MetadataDocuments.createObjectMapper()
+            .disable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final Map<String, AppMetadata> completed = new HashMap<>();
+    private BufferedWriter writer;
+
+    private CheckpointJournal(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Opens the journal. With {@code resume}, the units of an existing journal are kept if it was
+     * started less than {@code maxAge} ago with the same fingerprint; otherwise a new journal is started.
+     */
+    public static CheckpointJournal open(Path journalFile, boolean resume, Duration maxAge, String fingerprint)
+            throws IOException {
+        CheckpointJournal journal = new CheckpointJournal(journalFile);
+        Instant startedAt = resume ? journal.load(maxAge, fingerprint) : null;
+
+        Path parent = journalFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        if (startedAt != null) {
+            journal.writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            // Terminate a line that may have been cut off by the interrupted run
+            journal.writer.newLine();
+        } else {
+            journal.completed.clear();
+            journal.writer = Files.newBufferedWriter(journalFile, StandardCharsets.UTF_8);
+            ObjectNode header = journal.objectMapper.createObjectNode();
+            header.put("startedAt", Instant.now().toString());
+            header.put("fingerprint", fingerprint);
+            journal.writeLine(header);
+        }
+        return journal;
+    }
+
+    /**
+     * @return the number of units carried over from the resumed journal
+     */
+    public int size() {
+        return completed.size();
+    }
+
+    /**
+     * @return the metadata exported for the unit by an earlier run, or {@code null} if it has to be fetched
+     */
+    public AppMetadata completed(String store, String appId) {
+        return completed.get(key(store, appId));
+    }
+
+    public synchronized void record(String store, AppMetadata appMetadata) throws IOException {
+        JsonNode metadata = objectMapper.valueToTree(appMetadata);
+        ObjectNode line = objectMapper.createObjectNode();
+        line.put("store", store);
+        line.put("appId", appMetadata.getAppId());
+        line.put("hash", hash(metadata));
+        line.set("metadata", metadata);
+        writeLine(line);
+        completed.put(key(store, appMetadata.getAppId()), appMetadata);
+    }
+
+    /**
+     * Deletes the journal after a run in which every unit completed.
+     */
+    public void delete() throws IOException {
+        close();
+        Files.deleteIfExists(journalFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private Instant load(Duration maxAge, String fingerprint) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(journalFile, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            return null;
+        }
+
+        Instant startedAt;
+        try {
+            JsonNode header = objectMapper.readTree(lines.get(0));
+            startedAt = Instant.parse(header.path("startedAt").asText());
+            if (!Objects.equals(fingerprint, header.path("fingerprint").asText(null))
+                    || startedAt.plus(maxAge).isBefore(Instant.now())) {
+                return null;
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                JsonNode unit = objectMapper.readTree(line);
+                JsonNode metadata = unit.get("metadata");
+                if (metadata != null && hash(metadata).equals(unit.path("hash").asText())) {
+                    completed.put(key(unit.path("store").asText(), unit.path("appId").asText()),
+                            objectMapper.treeToValue(metadata, AppMetadata.class));
+                }
+            } catch (IOException e) {
+                // Cut off by the interrupted run
+            }
+        }
+        return startedAt;
+    }
+
+    private void writeLine(JsonNode node) throws IOException {
+        writer.write(objectMapper.writeValueAsString(node));
+        writer.newLine();
+        writer.flush();
+    }
+
+    private String hash(JsonNode metadata) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(objectMapper.writeValueAsBytes(metadata)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String key(String store, String appId) {
+        return store + "/" + appId;
+    }
+}
@@ -0,0 +1,48 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import com.adguard.stores.metadata.exporter.model.ExportState;
+import com.adguard.stores.metadata.exporter.sink.MetadataDocuments;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Loads and saves {@link ExportState} as a JSON file. The file is replaced atomically so an
+ * interrupted run never leaves a truncated state behind.
+ */
+public class ExportStateStore {
+
+    private final Path stateFile;
+    private final ObjectMapper objectMapper = MetadataDocuments.createObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    public ExportStateStore(Path stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * @return the saved state, or an empty state if the file does not exist yet
+     */
+    public ExportState load() throws IOException {
+        if (!Files.exists(stateFile)) {
+            return new ExportState();
+        }
+        return objectMapper.readValue(stateFile.toFile(), ExportState.class);
+    }
+
+    public void save(ExportState state) throws IOException {
+        Path parent = stateFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, stateFile.getFileName().toString(), ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), state);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package com.adguard.stores.metadata.exporter.service;
 
+import com.adguard.stores.metadata.exporter.jfr.InstrumentedObjectParser;
 import com.adguard.stores.metadata.exporter.model.AppMetadata;
 import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
-import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.HttpExecuteInterceptor;
+import com.google.api.client.http.HttpHeaders;
+import com.google.api.client.http.HttpTransport;
+import com.google.api.client.http.apache.v2.ApacheHttpTransport;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.androidpublisher.AndroidPublisher;
 import com.google.api.services.androidpublisher.AndroidPublisherScopes;
@@ -12,95 +19,344 @@ import com.google.api.services.androidpublisher.model.ListingsListResponse;
 import com.google.api.services.androidpublisher.model.Track;
 import com.google.api.services.androidpublisher.model.TrackRelease;
 import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
 
-public class GooglePlayService {
+public class GooglePlayService implements Closeable {
 
+    private static final Logger log = LoggerFactory.getLogger(GooglePlayService.class);
+
+    private static final String PRODUCTION_TRACK = "production";
+
+    // Calls per batch request; the batch endpoint accepts more, but large batches are processed slowly
+    private static final int BATCH_SIZE = 50;
+
+    private final HttpTransport transport;
     private final AndroidPublisher publisher;
+    private final ExecutorService requestExecutor;
 
-    public GooglePlayService(String serviceAccountJson) throws IOException, GeneralSecurityException {
-        GoogleCredentials credentials = GoogleCredentials
-                .fromStream(new ByteArrayInputStream(serviceAccountJson.getBytes(StandardCharsets.UTF_8)))
-                .createScoped(Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER));
+    private Set<String> locales;
 
+    public GooglePlayService(String serviceAccountJson) throws IOException {
+        this(loadCredentials(serviceAccountJson), UnaryOperator.identity(), 1);
+    }
+
+    /**
+     * @param transportDecorator wraps or replaces the HTTP transport used for all API calls
+     * @param concurrency        number of packages that will be fetched concurrently; sizes the
+     *                           connection pool and the executor for parallel reads within an edit
+     */
+    public GooglePlayService(GoogleCredentials credentials, UnaryOperator<HttpTransport> transportDecorator,
+                             int concurrency) {
+        // Listings and tracks of every in-flight package are read at the same time
+        int maxConnections = Math.max(1, concurrency) * 2;
+        this.transport = transportDecorator.apply(new ApacheHttpTransport(ApacheHttpTransport.newDefaultHttpClientBuilder()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnections)
+                .build()));
+        HttpCredentialsAdapter credentialsAdapter = new HttpCredentialsAdapter(credentials);
         this.publisher = new AndroidPublisher.Builder(
-                GoogleNetHttpTransport.newTrustedTransport(),
+                transport,
                 GsonFactory.getDefaultInstance(),
-                new HttpCredentialsAdapter(credentials))
+                request -> {
+                    credentialsAdapter.initialize(request);
+                    // The client sets its parser after the initializer runs, so it is wrapped at execution
+                    HttpExecuteInterceptor authInterceptor = request.getInterceptor();
+                    request.setInterceptor(executed -> {
+                        if (authInterceptor != null) {
+                            authInterceptor.intercept(executed);
+                        }
+                        if (!(executed.getParser() instanceof InstrumentedObjectParser)) {
+                            executed.setParser(new InstrumentedObjectParser(executed.getParser(), "googleplay"));
+                        }
+                    });
+                })
                 .setApplicationName("store-metadata-exporter")
                 .build();
+        this.requestExecutor = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable -> {
+            Thread thread = new Thread(runnable, "google-play-request");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
+    /**
+     * Creates a service that sends a fixed access token instead of refreshing one, e.g. when replaying
+     * recorded responses without credentials.
+     */
+    public static GooglePlayService withToken(String accessToken, UnaryOperator<HttpTransport> transportDecorator,
+                                              int concurrency) {
+        return new GooglePlayService(GoogleCredentials.create(new AccessToken(accessToken, null)), transportDecorator,
+                concurrency);
+    }
+
+    /**
+     * Restricts exported listings to the given languages; {@code null} exports all of them. The
+     * listings API has no language filter, so all listings are still downloaded.
+     */
+    public void setLocales(Collection<String> locales) {
+        this.locales = locales != null ? Set.copyOf(locales) : null;
+    }
+
+    public static GoogleCredentials loadCredentials(String serviceAccountJson) throws IOException {
+        return GoogleCredentials
+                .fromStream(new ByteArrayInputStream(serviceAccountJson.getBytes(StandardCharsets.UTF_8)))
+                .createScoped(Collections.singleton(AndroidPublisherScopes.ANDROIDPUBLISHER));
+    }
+
+    /**
+     * Fetches the metadata of one package. Listings and the production track are read in parallel;
+     * the edit is deleted on every path once both reads have finished. Safe to call from several
+     * threads at once.
+     */
     public AppMetadata fetchAppMetadata(String packageName) throws IOException {
         // Create an edit to read data
         AppEdit edit = publisher.edits().insert(packageName, null).execute();
         String editId = edit.getId();
 
-        try {
-            List<LocalizationMetadata> localizations = new ArrayList<>();
+        // Fetch current production version
+        Future<Track> productionTrack = requestExecutor.submit(() -> {
+            try {
+                return publisher.edits().tracks().get(packageName, editId, PRODUCTION_TRACK).execute();
+            } catch (IOException e) {
+                // Track might not exist, ignore
+                return null;
+            }
+        });
 
+        try {
             // Fetch listings (store page info per language)
             ListingsListResponse listingsResponse = publisher.edits().listings()
                     .list(packageName, editId).execute();
 
-            if (listingsResponse.getListings() != null) {
-                for (Listing listing : listingsResponse.getListings()) {
-                    LocalizationMetadata localization = LocalizationMetadata.builder()
-                            .locale(listing.getLanguage())
-                            .appInfo(LocalizationMetadata.AppInfoData.builder()
-                                    .name(listing.getTitle())
-                                    .subtitle(listing.getShortDescription())
-                                    .build())
-                            .version(LocalizationMetadata.VersionData.builder()
-                                    .description(listing.getFullDescription())
-                                    .build())
-                            .build();
-                    localizations.add(localization);
-                }
+            return toAppMetadata(packageName, listingsResponse, awaitTrack(productionTrack));
+
+        } finally {
+            // The edit must outlive the track read
+            awaitTrack(productionTrack);
+
+            // Delete the edit (we're only reading, not committing changes)
+            try {
+                publisher.edits().delete(packageName, editId).execute();
+            } catch (IOException e) {
+                // Ignore cleanup errors
             }
+        }
+    }
 
-            // Fetch current production version
-            String currentVersion = null;
-            Instant versionCreatedAt = null;
+    private static Track awaitTrack(Future<Track> track) throws IOException {
+        try {
+            return track.get();
+        } catch (ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading the production track");
+        }
+    }
+
+    /**
+     * Fetches metadata of many packages with three batch requests per {@value #BATCH_SIZE} packages
+     * instead of four requests per package: one batch inserts the edits, one reads listings and
+     * production tracks, and one deletes the edits again.
+     *
+     * @return metadata and errors by package name, in the order of {@code packageNames}
+     */
+    public BatchResult fetchAppMetadataBatch(List<String> packageNames) {
+        BatchResult result = new BatchResult();
+        for (int from = 0; from < packageNames.size(); from += BATCH_SIZE) {
+            List<String> chunk = packageNames.subList(from, Math.min(from + BATCH_SIZE, packageNames.size()));
             try {
-                Track productionTrack = publisher.edits().tracks()
-                        .get(packageName, editId, "production").execute();
-                if (productionTrack.getReleases() != null && !productionTrack.getReleases().isEmpty()) {
-                    TrackRelease latestRelease = productionTrack.getReleases().get(0);
-                    currentVersion = latestRelease.getName();
-                    if (currentVersion == null && latestRelease.getVersionCodes() != null 
-                            && !latestRelease.getVersionCodes().isEmpty()) {
-                        currentVersion = String.valueOf(latestRelease.getVersionCodes().get(0));
+                fetchBatch(chunk, result);
+            } catch (IOException e) {
+                for (String packageName : chunk) {
+                    if (!result.metadata.containsKey(packageName)) {
+                        result.errors.putIfAbsent(packageName, e.getMessage());
                     }
                 }
-            } catch (IOException e) {
-                // Track might not exist, ignore
             }
+        }
+        return result;
+    }
+
+    private void fetchBatch(List<String> packageNames, BatchResult result) throws IOException {
+        // Insert edits
+        Map<String, String> editIds = new LinkedHashMap<>();
+        BatchRequest insertBatch = publisher.batch();
+        for (String packageName : packageNames) {
+            publisher.edits().insert(packageName, null).queue(insertBatch, new JsonBatchCallback<>() {
+                @Override
+                public void onSuccess(AppEdit edit, HttpHeaders responseHeaders) {
+                    editIds.put(packageName, edit.getId());
+                }
 
-            return AppMetadata.builder()
-                    .appId(packageName)
-                    .bundleId(packageName)
-                    .currentVersion(currentVersion)
-                    .versionCreatedAt(versionCreatedAt)
-                    .localizations(localizations)
-                    .build();
+                @Override
+                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                    result.errors.put(packageName, error.getMessage());
+                }
+            });
+        }
+        insertBatch.execute();
 
+        if (editIds.isEmpty()) {
+            return;
+        }
+
+        try {
+            // Read listings and production tracks
+            Map<String, ListingsListResponse> listings = new HashMap<>();
+            Map<String, Track> tracks = new HashMap<>();
+            BatchRequest readBatch = publisher.batch();
+            for (var entry : editIds.entrySet()) {
+                String packageName = entry.getKey();
+                publisher.edits().listings().list(packageName, entry.getValue())
+                        .queue(readBatch, new JsonBatchCallback<>() {
+                            @Override
+                            public void onSuccess(ListingsListResponse response, HttpHeaders responseHeaders) {
+                                listings.put(packageName, response);
+                            }
+
+                            @Override
+                            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                                result.errors.put(packageName, error.getMessage());
+                            }
+                        });
+                publisher.edits().tracks().get(packageName, entry.getValue(), PRODUCTION_TRACK)
+                        .queue(readBatch, new JsonBatchCallback<>() {
+                            @Override
+                            public void onSuccess(Track track, HttpHeaders responseHeaders) {
+                                tracks.put(packageName, track);
+                            }
+
+                            @Override
+                            public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                                // Track might not exist, ignore
+                            }
+                        });
+            }
+            readBatch.execute();
+
+            for (String packageName : packageNames) {
+                if (listings.containsKey(packageName)) {
+                    result.metadata.put(packageName,
+                            toAppMetadata(packageName, listings.get(packageName), tracks.get(packageName)));
+                }
+            }
         } finally {
-            // Delete the edit (we're only reading, not committing changes)
+            // Delete the edits (we're only reading, not committing changes)
             try {
-                publisher.edits().delete(packageName, editId).execute();
+                BatchRequest deleteBatch = publisher.batch();
+                for (var entry : editIds.entrySet()) {
+                    publisher.edits().delete(entry.getKey(), entry.getValue())
+                            .queue(deleteBatch, new JsonBatchCallback<Void>() {
+                                @Override
+                                public void onSuccess(Void response, HttpHeaders responseHeaders) {
+                                }
+
+                                @Override
+                                public void onFailure(GoogleJsonError error, HttpHeaders responseHeaders) {
+                                    // Ignore cleanup errors
+                                }
+                            });
+                }
+                deleteBatch.execute();
             } catch (IOException e) {
                 // Ignore cleanup errors
             }
         }
     }
+
+    private AppMetadata toAppMetadata(String packageName, ListingsListResponse listingsResponse, Track productionTrack) {
+        List<LocalizationMetadata> localizations = new ArrayList<>();
+        if (listingsResponse.getListings() != null) {
+            for (Listing listing : listingsResponse.getListings()) {
+                if (locales != null && !locales.contains(listing.getLanguage())) {
+                    continue;
+                }
+                LocalizationMetadata localization = LocalizationMetadata.builder()
+                        .locale(listing.getLanguage())
+                        .appInfo(LocalizationMetadata.AppInfoData.builder()
+                                .name(listing.getTitle())
+                                .subtitle(listing.getShortDescription())
+                                .build())
+                        .version(LocalizationMetadata.VersionData.builder()
+                                .description(listing.getFullDescription())
+                                .build())
+                        .build();
+                localizations.add(localization);
+                log.atDebug()
+                        .addKeyValue("store", "googleplay")
+                        .addKeyValue("app", packageName)
+                        .addKeyValue("locale", listing.getLanguage())
+                        .log("Fetched localization");
+            }
+        }
+
+        String currentVersion = null;
+        Instant versionCreatedAt = null;
+        if (productionTrack != null && productionTrack.getReleases() != null
+                && !productionTrack.getReleases().isEmpty()) {
+            TrackRelease latestRelease = productionTrack.getReleases().get(0);
+            currentVersion = latestRelease.getName();
+            if (currentVersion == null && latestRelease.getVersionCodes() != null
+                    && !latestRelease.getVersionCodes().isEmpty()) {
+                currentVersion = String.valueOf(latestRelease.getVersionCodes().get(0));
+            }
+        }
+
+        return AppMetadata.builder()
+                .appId(packageName)
+                .bundleId(packageName)
+                .currentVersion(currentVersion)
+                .versionCreatedAt(versionCreatedAt)
+                .localizations(localizations)
+                .build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        requestExecutor.shutdownNow();
+        transport.shutdown();
+    }
+
+    /**
+     * Results of {@link #fetchAppMetadataBatch(List)}.
+     */
+    public static class BatchResult {
+        private final Map<String, AppMetadata> metadata = new LinkedHashMap<>();
+        private final Map<String, String> errors = new LinkedHashMap<>();
+
+        public Map<String, AppMetadata> getMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return error messages of packages that could not be fetched
+         */
+        public Map<String, String> getErrors() {
+            return errors;
+        }
+    }
 }
@@ -0,0 +1,167 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.auth.oauth2.ServiceAccountCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Persists the Google OAuth access token of a service account between runs, so a run started while
+ * the previous token is still valid does not need a token exchange before its first API call.
+ * <p>
+ * The file is encrypted with AES-GCM using a key derived from the service account's private key, so it
+ * is useless without the service account JSON and can be kept in a shared CI cache. The token is bound
+ * to the client email and scopes it was issued for.
+ * <p>
+ * Refreshes are left to {@link com.google.auth.oauth2.OAuth2Credentials}, which already runs at most
+ * one refresh at a time no matter how many threads need a token; this class only seeds the initial
+ * token and saves every refreshed one.
+ */
+public class GoogleTokenCache {
+
+    private static final Logger log = LoggerFactory.getLogger(GoogleTokenCache.class);
+
+    // Cached tokens closer to expiry than this are not reused
+    private static final Duration MIN_REMAINING_VALIDITY = Duration.ofMinutes(5);
+
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final Path cacheFile;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SecureRandom random = new SecureRandom();
+
+    public GoogleTokenCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Returns credentials that start with the cached token if it is still valid, and saves the token
+     * whenever it is refreshed. Credentials other than a service account are returned unchanged.
+     */
+    public GoogleCredentials attach(GoogleCredentials credentials) {
+        if (!(credentials instanceof ServiceAccountCredentials serviceAccount) || serviceAccount.getPrivateKey() == null) {
+            return credentials;
+        }
+
+        byte[] key = deriveKey(serviceAccount);
+        List<String> scopes = List.copyOf(new TreeSet<>(serviceAccount.getScopes()));
+
+        GoogleCredentials result = serviceAccount;
+        AccessToken cachedToken = load(key, serviceAccount.getClientEmail(), scopes);
+        if (cachedToken != null) {
+            ServiceAccountCredentials.Builder builder = serviceAccount.toBuilder();
+            builder.setAccessToken(cachedToken);
+            result = builder.build();
+        }
+
+        result.addChangeListener(changed -> {
+            AccessToken token = changed.getAccessToken();
+            if (token != null && token.getExpirationTime() != null) {
+                try {
+                    save(key, serviceAccount.getClientEmail(), scopes, token);
+                } catch (IOException e) {
+                    // A failed save only costs the next run a token exchange
+                    log.atWarn().addKeyValue("file", cacheFile)
+                            .log("Failed to save Google token cache: {}", e.getMessage());
+                }
+            }
+        });
+        return result;
+    }
+
+    private AccessToken load(byte[] key, String clientEmail, List<String> scopes) {
+        if (!Files.exists(cacheFile)) {
+            return null;
+        }
+        try {
+            byte[] content = Files.readAllBytes(cacheFile);
+            if (content.length <= IV_LENGTH) {
+                return null;
+            }
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"),
+                    new GCMParameterSpec(TAG_LENGTH_BITS, content, 0, IV_LENGTH));
+            CachedToken cached = objectMapper.readValue(
+                    cipher.doFinal(content, IV_LENGTH, content.length - IV_LENGTH), CachedToken.class);
+
+            if (!clientEmail.equals(cached.clientEmail) || !scopes.equals(cached.scopes)
+                    || cached.expiresAt - System.currentTimeMillis() < MIN_REMAINING_VALIDITY.toMillis()) {
+                return null;
+            }
+            return new AccessToken(cached.tokenValue, new Date(cached.expiresAt));
+        } catch (IOException | GeneralSecurityException e) {
+            // Unreadable, tampered with or written for another key: fall back to a token exchange
+            return null;
+        }
+    }
+
+    private void save(byte[] key, String clientEmail, List<String> scopes, AccessToken token) throws IOException {
+        CachedToken cached = new CachedToken();
+        cached.clientEmail = clientEmail;
+        cached.scopes = scopes;
+        cached.tokenValue = token.getTokenValue();
+        cached.expiresAt = token.getExpirationTime().getTime();
+
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        byte[] encrypted;
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            encrypted = cipher.doFinal(objectMapper.writeValueAsBytes(cached));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to encrypt the token cache", e);
+        }
+
+        byte[] content = Arrays.copyOf(iv, IV_LENGTH + encrypted.length);
+        System.arraycopy(encrypted, 0, content, IV_LENGTH, encrypted.length);
+
+        Path parent = cacheFile.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, cacheFile.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tempFile, content);
+            Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static byte[] deriveKey(ServiceAccountCredentials serviceAccount) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update("store-metadata-exporter/google-token-cache".getBytes(StandardCharsets.UTF_8));
+            digest.update(serviceAccount.getPrivateKey().getEncoded());
+            return digest.digest();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CachedToken {
+        public String clientEmail;
+        public List<String> scopes;
+        public String tokenValue;
+        public long expiresAt;
+    }
+}
@@ -1,109 +1,32 @@
 package com.adguard.stores.metadata.exporter.service;
 
 import com.adguard.stores.metadata.exporter.model.AppMetadata;
-import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.adguard.stores.metadata.exporter.sink.DirectoryMetadataSink;
+import com.adguard.stores.metadata.exporter.sink.MetadataSink;
+import com.adguard.stores.metadata.exporter.sink.OutputLayout;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedHashMap;
-import java.util.Map;
 
-public class MetadataExporter {
+public class MetadataExporter implements Closeable {
 
-    private final Path outputDir;
-    private final boolean dryRun;
-    private final boolean verbose;
-    private final ObjectMapper objectMapper;
+    private final MetadataSink sink;
 
-    public MetadataExporter(Path outputDir, boolean dryRun, boolean verbose) {
-        this.outputDir = outputDir;
-        this.dryRun = dryRun;
-        this.verbose = verbose;
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.registerModule(new JavaTimeModule());
-        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-        this.objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    public MetadataExporter(Path outputDir, boolean dryRun) {
+        this(new DirectoryMetadataSink(outputDir, OutputLayout.TREE, dryRun));
     }
 
-    public void export(AppMetadata appMetadata, String storeType) throws IOException {
-        Path appDir = outputDir.resolve(storeType).resolve(appMetadata.getBundleId());
-        Path localizationsDir = appDir.resolve("localizations");
-
-        if (!dryRun) {
-            Files.createDirectories(localizationsDir);
-        }
-
-        // Write metadata.json
-        Map<String, Object> metadataJson = new LinkedHashMap<>();
-        metadataJson.put("appId", appMetadata.getAppId());
-        metadataJson.put("bundleId", appMetadata.getBundleId());
-        metadataJson.put("currentVersion", appMetadata.getCurrentVersion());
-        if (appMetadata.getVersionCreatedAt() != null) {
-            metadataJson.put("versionCreatedAt", appMetadata.getVersionCreatedAt().toString());
-        }
-        if (appMetadata.getVersionReleasedAt() != null) {
-            metadataJson.put("versionReleasedAt", appMetadata.getVersionReleasedAt().toString());
-        }
-
-        Path metadataFile = appDir.resolve("metadata.json");
-        writeJson(metadataFile, metadataJson);
-
-        // Write localization files
-        for (LocalizationMetadata localization : appMetadata.getLocalizations()) {
-            Map<String, Object> localizationJson = new LinkedHashMap<>();
-            localizationJson.put("locale", localization.getLocale());
-
-            if (localization.getAppInfo() != null) {
-                Map<String, Object> appInfoJson = new LinkedHashMap<>();
-                putIfNotNull(appInfoJson, "name", localization.getAppInfo().getName());
-                putIfNotNull(appInfoJson, "subtitle", localization.getAppInfo().getSubtitle());
-                putIfNotNull(appInfoJson, "privacyPolicyUrl", localization.getAppInfo().getPrivacyPolicyUrl());
-                putIfNotNull(appInfoJson, "privacyChoicesUrl", localization.getAppInfo().getPrivacyChoicesUrl());
-                if (!appInfoJson.isEmpty()) {
-                    localizationJson.put("appInfo", appInfoJson);
-                }
-            }
-
-            if (localization.getVersion() != null) {
-                Map<String, Object> versionJson = new LinkedHashMap<>();
-                putIfNotNull(versionJson, "description", localization.getVersion().getDescription());
-                putIfNotNull(versionJson, "keywords", localization.getVersion().getKeywords());
-                putIfNotNull(versionJson, "promotionalText", localization.getVersion().getPromotionalText());
-                putIfNotNull(versionJson, "marketingUrl", localization.getVersion().getMarketingUrl());
-                putIfNotNull(versionJson, "supportUrl", localization.getVersion().getSupportUrl());
-                if (!versionJson.isEmpty()) {
-                    localizationJson.put("version", versionJson);
-                }
-            }
-
-            Path localizationFile = localizationsDir.resolve(localization.getLocale() + ".json");
-            writeJson(localizationFile, localizationJson);
-        }
+    public MetadataExporter(MetadataSink sink) {
+        this.sink = sink;
     }
 
-    private void putIfNotNull(Map<String, Object> map, String key, Object value) {
-        if (value != null) {
-            map.put(key, value);
-        }
+    public void export(AppMetadata appMetadata, String storeType) throws IOException {
+        sink.write(storeType, appMetadata);
     }
 
-    private void writeJson(Path file, Object data) throws IOException {
-        String json = objectMapper.writeValueAsString(data);
-
-        if (dryRun) {
-            System.out.println("[DRY RUN] Would write: " + file);
-            if (verbose) {
-                System.out.println(json);
-            }
-        } else {
-            Files.writeString(file, json);
-            if (verbose) {
-                System.out.println("Wrote: " + file);
-            }
-        }
+    @Override
+    public void close() throws IOException {
+        sink.close();
     }
 }
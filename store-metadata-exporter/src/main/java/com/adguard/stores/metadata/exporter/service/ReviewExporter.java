@@ -0,0 +1,259 @@
+package com.adguard.stores.metadata.exporter.service;
+
+import com.adguard.stores.appstoreconnect.ApiException;
+import com.adguard.stores.metadata.exporter.model.AppReview;
+import com.adguard.stores.metadata.exporter.model.ReviewWatermark;
+import com.adguard.stores.metadata.exporter.sink.MetadataDocuments;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Appends new customer reviews to {@code <reviewsDir>/<store>/<bundleId>/<territory>.ndjson} and keeps
+ * the newest exported review of every app in {@code <reviewsDir>/reviews-state.json}.
+ * <p>
+ * Reviews are appended page by page as they are listed, newest first, and the state is saved after
+ * every page, so neither a long history nor an interrupted run is held in memory or lost: the next run
+ * continues below the oldest review the interrupted one appended. Apps exported for the first time are
+ * listed back to {@code since} and at most {@code maxPages} pages; older reviews are not exported.
+ */
+public class ReviewExporter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReviewExporter.class);
+
+    private static final String STATE_FILE = "reviews-state.json";
+
+    private final Path reviewsDir;
+    private final Path stateFile;
+    private final Instant since;
+    private final int maxPages;
+    private final boolean dryRun;
+    private final ObjectMapper objectMapper = MetadataDocuments.createObjectMapper()
+            .disable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private final Map<String, ReviewWatermark> watermarks;
+    private int appended;
+
+    /**
+     * @param since    oldest review to export, or {@code null} for no limit
+     * @param maxPages pages listed for an app exported for the first time, 0 for no limit
+     * @param dryRun   only count the new reviews, without writing them or the state
+     */
+    public ReviewExporter(Path reviewsDir, Instant since, int maxPages, boolean dryRun) throws IOException {
+        this.reviewsDir = reviewsDir;
+        this.stateFile = reviewsDir.resolve(STATE_FILE);
+        this.since = since;
+        this.maxPages = maxPages;
+        this.dryRun = dryRun;
+        this.watermarks = Files.exists(stateFile)
+                ? objectMapper.readValue(stateFile.toFile(), new TypeReference<TreeMap<String, ReviewWatermark>>() {})
+                : new TreeMap<>();
+    }
+
+    /**
+     * @return reviews appended (or, in a dry run, found) so far
+     */
+    public int getAppended() {
+        return appended;
+    }
+
+    /**
+     * Lists the reviews of an app created since its watermark and appends them. If the previous run
+     * left the listing unfinished, it is completed first and the reviews created since are listed after.
+     */
+    public void export(AppStoreConnectService ascService, String storeType, String appId, String bundleId)
+            throws ApiException, IOException {
+        boolean resumed;
+        do {
+            ReviewWatermark watermark = watermarks.get(appId);
+            resumed = watermark != null && watermark.getPendingNewest() != null;
+            Listing listing = new Listing(storeType, appId, bundleId, watermark);
+            ascService.listReviews(appId, listing::onPage);
+            listing.finish();
+        } while (resumed);
+    }
+
+    /**
+     * One newest-first listing of an app, from the top down to its watermark.
+     */
+    private class Listing {
+
+        private final String storeType;
+        private final String appId;
+        private final String bundleId;
+        private final ReviewWatermark watermark;
+        private ReviewWatermark newest;
+        private ReviewWatermark oldest;
+        private int pages;
+        private int reviews;
+        private boolean truncated;
+
+        Listing(String storeType, String appId, String bundleId, ReviewWatermark watermark) {
+            this.storeType = storeType;
+            this.appId = appId;
+            this.bundleId = bundleId;
+            this.watermark = watermark != null && watermark.getCreatedAt() != null ? watermark : null;
+            this.newest = watermark != null ? watermark.getPendingNewest() : null;
+            this.oldest = watermark != null ? watermark.getPendingOldest() : null;
+        }
+
+        boolean onPage(List<AppReview> newestFirst) throws IOException {
+            pages++;
+            List<AppReview> page = new ArrayList<>();
+            boolean done = false;
+            for (AppReview review : newestFirst) {
+                Instant createdAt = review.getCreatedAt();
+                if (createdAt != null) {
+                    if ((since != null && createdAt.isBefore(since))
+                            || (watermark != null && createdAt.isBefore(watermark.getCreatedAt()))) {
+                        done = true;
+                        break;
+                    }
+                    if (watermark != null && createdAt.equals(watermark.getCreatedAt())
+                            && contains(watermark, review)) {
+                        continue;
+                    }
+                    if (oldest != null && (createdAt.isAfter(oldest.getCreatedAt())
+                            || (createdAt.equals(oldest.getCreatedAt()) && contains(oldest, review)))) {
+                        // Appended by the interrupted run
+                        continue;
+                    }
+                }
+                page.add(review);
+            }
+            append(page);
+
+            if (done) {
+                return false;
+            }
+            if (watermark == null && maxPages > 0 && pages >= maxPages) {
+                truncated = true;
+                return false;
+            }
+            return true;
+        }
+
+        void finish() throws IOException {
+            if (newest != null) {
+                ReviewWatermark next = newest;
+                if (watermark != null && Objects.equals(watermark.getCreatedAt(), newest.getCreatedAt())) {
+                    next = merge(watermark, newest.getReviewIds());
+                }
+                watermarks.put(appId, next);
+                saveState();
+            }
+            if (truncated) {
+                log.atInfo().addKeyValue("store", storeType).addKeyValue("app", bundleId)
+                        .addKeyValue("pages", pages)
+                        .log("Reached the page limit of the first review export; older reviews are not exported");
+            }
+            if (reviews > 0) {
+                log.atInfo().addKeyValue("store", storeType).addKeyValue("app", bundleId)
+                        .addKeyValue("reviews", reviews)
+                        .log(dryRun ? "[DRY RUN] Would append reviews" : "Appended reviews");
+            }
+        }
+
+        private void append(List<AppReview> page) throws IOException {
+            if (page.isEmpty()) {
+                return;
+            }
+            reviews += page.size();
+            appended += page.size();
+            if (!dryRun) {
+                Map<String, List<AppReview>> byTerritory = new TreeMap<>();
+                for (AppReview review : page) {
+                    String territory = review.getTerritory() != null ? review.getTerritory() : "unknown";
+                    byTerritory.computeIfAbsent(territory, key -> new ArrayList<>()).add(review);
+                }
+                Path appDir = reviewsDir.resolve(storeType).resolve(bundleId);
+                Files.createDirectories(appDir);
+                for (Map.Entry<String, List<AppReview>> territory : byTerritory.entrySet()) {
+                    try (BufferedWriter writer = Files.newBufferedWriter(
+                            appDir.resolve(territory.getKey() + ".ndjson"), StandardCharsets.UTF_8,
+                            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                        for (AppReview review : territory.getValue()) {
+                            writer.write(objectMapper.writeValueAsString(review));
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+
+            for (AppReview review : page) {
+                if (review.getCreatedAt() == null) {
+                    continue;
+                }
+                if (newest == null) {
+                    newest = position(review.getCreatedAt(), List.of());
+                }
+                if (review.getCreatedAt().equals(newest.getCreatedAt())) {
+                    newest = merge(newest, List.of(review.getId()));
+                }
+                if (oldest == null || review.getCreatedAt().isBefore(oldest.getCreatedAt())) {
+                    oldest = position(review.getCreatedAt(), List.of());
+                }
+                if (review.getCreatedAt().equals(oldest.getCreatedAt())) {
+                    oldest = merge(oldest, List.of(review.getId()));
+                }
+            }
+            if (newest != null) {
+                ReviewWatermark progress = watermark != null ? merge(watermark, List.of()) : position(null, null);
+                progress.setPendingNewest(newest);
+                progress.setPendingOldest(oldest);
+                watermarks.put(appId, progress);
+                saveState();
+            }
+        }
+    }
+
+    private static boolean contains(ReviewWatermark position, AppReview review) {
+        return position.getReviewIds() != null && position.getReviewIds().contains(review.getId());
+    }
+
+    private static ReviewWatermark position(Instant createdAt, List<String> reviewIds) {
+        return ReviewWatermark.builder().createdAt(createdAt).reviewIds(reviewIds).build();
+    }
+
+    private static ReviewWatermark merge(ReviewWatermark position, List<String> reviewIds) {
+        Set<String> ids = new LinkedHashSet<>();
+        if (position.getReviewIds() != null) {
+            ids.addAll(position.getReviewIds());
+        }
+        ids.addAll(reviewIds);
+        return position(position.getCreatedAt(), new ArrayList<>(ids));
+    }
+
+    private void saveState() throws IOException {
+        if (dryRun) {
+            return;
+        }
+        Files.createDirectories(reviewsDir);
+        Path tmp = Files.createTempFile(reviewsDir, STATE_FILE, ".tmp");
+        try {
+            objectMapper.writeValue(tmp.toFile(), watermarks);
+            Files.move(tmp, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
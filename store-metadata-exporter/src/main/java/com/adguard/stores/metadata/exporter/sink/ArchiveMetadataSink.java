@@ -0,0 +1,94 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams the metadata file tree into a single compressed archive as each app is written.
+ *
+ * <p>Entries carry fixed timestamps and ownership, so identical content always produces
+ * a byte-identical archive.</p>
+ */
+public class ArchiveMetadataSink extends FileTreeSink {
+
+    public enum Format {
+        ZIP,
+        TAR_GZ;
+
+        public static Format fromFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".zip")) {
+                return ZIP;
+            }
+            if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) {
+                return TAR_GZ;
+            }
+            throw new IllegalArgumentException("Unsupported archive type: " + fileName
+                    + " (expected .zip, .tar.gz or .tgz)");
+        }
+    }
+
+    // Earliest timestamp representable in a ZIP entry; used for TAR entries as well
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(1980, 1, 1, 0, 0);
+    private static final FileTime ENTRY_FILE_TIME = FileTime.from(ENTRY_TIME.toInstant(ZoneOffset.UTC));
+
+    private final ZipOutputStream zip;
+    private final TarArchiveOutputStream tar;
+
+    public ArchiveMetadataSink(OutputStream out, Format format, OutputLayout layout) throws IOException {
+        super(layout);
+        OutputStream buffered = new BufferedOutputStream(out);
+        if (format == Format.ZIP) {
+            this.zip = new ZipOutputStream(buffered, StandardCharsets.UTF_8);
+            this.tar = null;
+        } else {
+            this.zip = null;
+            this.tar = new TarArchiveOutputStream(new GZIPOutputStream(buffered), StandardCharsets.UTF_8.name());
+            this.tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        }
+    }
+
+    @Override
+    protected boolean writeFile(String path, byte[] content) throws IOException {
+        if (zip != null) {
+            ZipEntry entry = new ZipEntry(path);
+            entry.setTimeLocal(ENTRY_TIME);
+            zip.putNextEntry(entry);
+            zip.write(content);
+            zip.closeEntry();
+        } else {
+            TarArchiveEntry entry = new TarArchiveEntry(path);
+            entry.setModTime(ENTRY_FILE_TIME);
+            entry.setMode(TarArchiveEntry.DEFAULT_FILE_MODE);
+            // Ownership defaults to the current user; clear it to keep archives reproducible
+            entry.setIds(0, 0);
+            entry.setNames("", "");
+            entry.setSize(content.length);
+            tar.putArchiveEntry(entry);
+            tar.write(content);
+            tar.closeArchiveEntry();
+        }
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (zip != null) {
+            zip.close();
+        } else {
+            tar.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes the metadata file tree into the output directory.
+ *
+ * <p>Files whose content is unchanged are not rewritten, so their timestamps stay stable
+ * and tools like {@code git status} do not need to re-hash them.</p>
+ */
+public class DirectoryMetadataSink extends FileTreeSink {
+
+    private static final Logger log = LoggerFactory.getLogger(DirectoryMetadataSink.class);
+
+    private final Path outputDir;
+    private final boolean dryRun;
+
+    public DirectoryMetadataSink(Path outputDir, OutputLayout layout, boolean dryRun) {
+        super(layout);
+        this.outputDir = outputDir;
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    protected boolean writeFile(String path, byte[] content) throws IOException {
+        Path file = outputDir.resolve(path);
+
+        if (dryRun) {
+            log.atInfo().addKeyValue("file", file).log("[DRY RUN] Would write");
+            if (log.isDebugEnabled()) {
+                log.debug(new String(content, StandardCharsets.UTF_8));
+            }
+            return false;
+        } else if (isUnchanged(file, content)) {
+            log.atDebug().addKeyValue("file", file).log("Unchanged");
+            return false;
+        } else {
+            Files.createDirectories(file.getParent());
+            Files.write(file, content);
+            log.atDebug().addKeyValue("file", file).log("Wrote");
+            return true;
+        }
+    }
+
+    private boolean isUnchanged(Path file, byte[] content) throws IOException {
+        // Size check first, so most changed files are detected without reading them
+        return Files.isRegularFile(file)
+                && Files.size(file) == content.length
+                && Arrays.equals(Files.readAllBytes(file), content);
+    }
+}
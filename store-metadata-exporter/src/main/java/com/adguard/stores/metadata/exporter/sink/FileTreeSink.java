@@ -0,0 +1,106 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.jfr.FileWriteEvent;
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import com.adguard.stores.metadata.exporter.trace.Span;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base for sinks that store the {@code <store>/<bundleId>/...} file layout.
+ *
+ * <p>Files of an app are produced in a deterministic order: {@code metadata.json} first,
+ * then the localization files sorted by locale. With the {@link OutputLayout#PACKED} layout
+ * the same documents are combined into a single file per app. Paths are relative and always
+ * use {@code /}.</p>
+ */
+public abstract class FileTreeSink implements MetadataSink {
+
+    private final OutputLayout layout;
+    private final ObjectMapper objectMapper;
+    private int filesWritten;
+    private int filesSkipped;
+
+    protected FileTreeSink(OutputLayout layout) {
+        this.layout = layout;
+        this.objectMapper = MetadataDocuments.createObjectMapper();
+    }
+
+    @Override
+    public void write(String storeType, AppMetadata appMetadata) throws IOException {
+        List<LocalizationMetadata> localizations = appMetadata.getLocalizations() != null
+                ? appMetadata.getLocalizations() : List.<LocalizationMetadata>of();
+        List<LocalizationMetadata> sortedLocalizations = localizations.stream()
+                .sorted(Comparator.comparing(LocalizationMetadata::getLocale))
+                .toList();
+
+        if (layout == OutputLayout.PACKED) {
+            Map<String, Object> localizationsJson = new LinkedHashMap<>();
+            for (LocalizationMetadata localization : sortedLocalizations) {
+                localizationsJson.put(localization.getLocale(), MetadataDocuments.toLocalizationJson(localization));
+            }
+            Map<String, Object> packedJson = new LinkedHashMap<>();
+            packedJson.put(MetadataDocuments.PACKED_METADATA, MetadataDocuments.toMetadataJson(appMetadata));
+            packedJson.put(MetadataDocuments.PACKED_LOCALIZATIONS, localizationsJson);
+            emitFile(storeType + "/" + appMetadata.getBundleId() + ".json", toJson(packedJson));
+            return;
+        }
+
+        String appDir = storeType + "/" + appMetadata.getBundleId();
+        emitFile(appDir + "/metadata.json", toJson(MetadataDocuments.toMetadataJson(appMetadata)));
+        for (LocalizationMetadata localization : sortedLocalizations) {
+            emitFile(appDir + "/localizations/" + localization.getLocale() + ".json",
+                    toJson(MetadataDocuments.toLocalizationJson(localization)));
+        }
+    }
+
+    protected byte[] toJson(Object data) throws IOException {
+        return objectMapper.writeValueAsBytes(data);
+    }
+
+    private void emitFile(String path, byte[] content) throws IOException {
+        FileWriteEvent event = new FileWriteEvent();
+        event.begin();
+        boolean written;
+        try (Span span = Span.begin("write", path)) {
+            span.arg("sink", getClass().getSimpleName()).arg("bytes", content.length);
+            written = writeFile(path, content);
+            span.arg("written", written);
+        }
+        if (written) {
+            filesWritten++;
+        } else {
+            filesSkipped++;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.sink = getClass().getSimpleName();
+            event.path = path;
+            event.bytes = content.length;
+            event.written = written;
+            event.commit();
+        }
+    }
+
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    /**
+     * @return the number of files not written because they were unchanged or the run is a dry run
+     */
+    public int getFilesSkipped() {
+        return filesSkipped;
+    }
+
+    /**
+     * @return {@code false} if the file was skipped, e.g. because it is unchanged or the run is a dry run
+     */
+    protected abstract boolean writeFile(String path, byte[] content) throws IOException;
+}
@@ -0,0 +1,176 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.CheckoutConflictException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Writes metadata files straight into the object database of a git repository and commits them.
+ *
+ * <p>The HEAD tree is loaded into an in-memory index once; every file is compared with it by blob id,
+ * so only changed paths produce new objects. A run without changes creates no commit. After the commit
+ * the on-disk index and the working tree are updated for the changed paths only, so {@code git status}
+ * shows the export as committed; other files, including local changes to them, are left alone.</p>
+ */
+public class GitMetadataSink extends FileTreeSink {
+
+    private static final Logger log = LoggerFactory.getLogger(GitMetadataSink.class);
+
+    private final Repository repository;
+    private final String pathPrefix;
+    private final String commitMessage;
+    private final boolean dryRun;
+
+    private final ObjectInserter inserter;
+    private final ObjectId headCommitId;
+    private final ObjectId headTreeId;
+    private final DirCache index;
+    private final DirCacheEditor editor;
+    private int changedFiles;
+
+    public GitMetadataSink(Path outputDir, OutputLayout layout, String commitMessage, boolean dryRun) throws IOException {
+        super(layout);
+        this.repository = new FileRepositoryBuilder()
+                .findGitDir(outputDir.toAbsolutePath().toFile())
+                .setMustExist(true)
+                .build();
+        if (repository.isBare()) {
+            throw new IOException("Bare repositories are not supported: " + repository.getDirectory());
+        }
+
+        Path workTree = repository.getWorkTree().toPath().toAbsolutePath().normalize();
+        String relative = workTree.relativize(outputDir.toAbsolutePath().normalize()).toString()
+                .replace('\\', '/');
+        this.pathPrefix = relative.isEmpty() ? "" : relative + "/";
+        this.commitMessage = commitMessage;
+        this.dryRun = dryRun;
+
+        this.inserter = repository.newObjectInserter();
+        this.headCommitId = repository.resolve(Constants.HEAD);
+        this.index = DirCache.newInCore();
+
+        if (headCommitId != null) {
+            try (RevWalk walk = new RevWalk(repository); ObjectReader reader = repository.newObjectReader()) {
+                RevCommit headCommit = walk.parseCommit(headCommitId);
+                this.headTreeId = headCommit.getTree().getId();
+                DirCacheBuilder builder = index.builder();
+                builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, headTreeId);
+                builder.finish();
+            }
+        } else {
+            this.headTreeId = null;
+        }
+        this.editor = index.editor();
+    }
+
+    @Override
+    protected boolean writeFile(String path, byte[] content) throws IOException {
+        String fullPath = pathPrefix + path;
+        ObjectId blobId = inserter.idFor(Constants.OBJ_BLOB, content);
+
+        DirCacheEntry existing = index.getEntry(fullPath);
+        if (existing != null && blobId.equals(existing.getObjectId())) {
+            return false;
+        }
+
+        changedFiles++;
+        if (dryRun) {
+            log.atInfo().addKeyValue("path", fullPath).log("[DRY RUN] Would commit");
+            return false;
+        }
+
+        inserter.insert(Constants.OBJ_BLOB, content);
+        editor.add(new DirCacheEditor.PathEdit(fullPath) {
+            @Override
+            public void apply(DirCacheEntry entry) {
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setObjectId(blobId);
+            }
+        });
+        log.atDebug().addKeyValue("path", fullPath).log("Staged");
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (changedFiles == 0 || dryRun) {
+                log.info(changedFiles == 0
+                        ? "No metadata changes, nothing to commit"
+                        : "[DRY RUN] Would commit " + changedFiles + " changed files");
+                return;
+            }
+
+            editor.finish();
+            ObjectId treeId = index.writeTree(inserter);
+            if (treeId.equals(headTreeId)) {
+                log.info("No metadata changes, nothing to commit");
+                return;
+            }
+
+            PersonIdent ident = new PersonIdent(repository);
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(treeId);
+            if (headCommitId != null) {
+                commit.setParentId(headCommitId);
+            }
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage(commitMessage);
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            RefUpdate refUpdate = repository.updateRef(Constants.HEAD);
+            refUpdate.setNewObjectId(commitId);
+            refUpdate.setExpectedOldObjectId(headCommitId != null ? headCommitId : ObjectId.zeroId());
+            refUpdate.setRefLogMessage("commit: " + commitMessage, false);
+            RefUpdate.Result result = refUpdate.update();
+            if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("Failed to update HEAD: " + result);
+            }
+
+            log.atInfo().addKeyValue("files", changedFiles).addKeyValue("commit", commitId.abbreviate(7).name())
+                    .log("Committed changed files");
+            checkout(treeId);
+        } finally {
+            inserter.close();
+            repository.close();
+        }
+    }
+
+    /**
+     * Brings the index and the working tree from the previous HEAD tree to the committed one. Paths with
+     * local changes are not overwritten; the checkout is then skipped with a warning.
+     */
+    private void checkout(ObjectId treeId) throws IOException {
+        DirCacheCheckout checkout = headTreeId != null
+                ? new DirCacheCheckout(repository, headTreeId, repository.lockDirCache(), treeId)
+                : new DirCacheCheckout(repository, repository.lockDirCache(), treeId);
+        try {
+            checkout.checkout();
+        } catch (CheckoutConflictException e) {
+            log.atWarn().addKeyValue("paths", checkout.getConflicts())
+                    .log("Committed, but local changes keep the working tree and index from being updated");
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Keeps the full history of every metadata field in an embedded H2 database file.
+ *
+ * <p>Each field value is stored as a row with a {@code valid_from}/{@code valid_to} interval: when a value
+ * changes, the open row is closed at the run time and a new row is inserted. Unchanged values are not
+ * touched, so the database grows only with actual changes. All changes of a run are committed in a
+ * single transaction when the sink is closed.</p>
+ *
+ * <p>When only some locales are exported, the open rows of the other locales are left as they are
+ * rather than closed as removed.</p>
+ */
+public class HistoryDatabaseSink implements MetadataSink {
+
+    private static final Logger log = LoggerFactory.getLogger(HistoryDatabaseSink.class);
+
+    private static final String[] SCHEMA = {
+            """
+            CREATE TABLE IF NOT EXISTS runs (
+                id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                started_at TIMESTAMP WITH TIME ZONE NOT NULL
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS apps (
+                id BIGINT AUTO_INCREMENT PRIMARY KEY,
+                store VARCHAR(32) NOT NULL,
+                bundle_id VARCHAR(255) NOT NULL,
+                CONSTRAINT uq_apps_store_bundle UNIQUE (store, bundle_id)
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS app_field_values (
+                app_ref BIGINT NOT NULL REFERENCES apps(id),
+                field VARCHAR(64) NOT NULL,
+                field_value CHARACTER VARYING,
+                valid_from TIMESTAMP WITH TIME ZONE NOT NULL,
+                valid_to TIMESTAMP WITH TIME ZONE
+            )""",
+            """
+            CREATE TABLE IF NOT EXISTS localization_field_values (
+                app_ref BIGINT NOT NULL REFERENCES apps(id),
+                locale VARCHAR(32) NOT NULL,
+                field VARCHAR(255) NOT NULL,
+                field_value CHARACTER VARYING,
+                valid_from TIMESTAMP WITH TIME ZONE NOT NULL,
+                valid_to TIMESTAMP WITH TIME ZONE
+            )""",
+            "CREATE INDEX IF NOT EXISTS idx_app_field_values ON app_field_values (app_ref, field, valid_to)",
+            "CREATE INDEX IF NOT EXISTS idx_localization_field_values "
+                    + "ON localization_field_values (app_ref, locale, field, valid_to)",
+            "CREATE INDEX IF NOT EXISTS idx_localization_field_values_field "
+                    + "ON localization_field_values (field, valid_from)",
+    };
+
+    private final Connection connection;
+    private final boolean dryRun;
+    private final Timestamp runTime;
+    private final Set<String> locales;
+    private final Map<String, Long> appIds = new HashMap<>();
+    private int changedValues;
+
+    /**
+     * @param locales the locales exported by this run, or {@code null} when all locales are exported
+     */
+    public HistoryDatabaseSink(String databaseFile, Collection<String> locales, boolean dryRun) throws IOException {
+        this.dryRun = dryRun;
+        this.locales = locales != null ? Set.copyOf(locales) : null;
+        this.runTime = Timestamp.from(Instant.now());
+        // H2 expects the file name without extension and refuses implicitly relative paths
+        String absolutePath = Path.of(databaseFile).toAbsolutePath().toString();
+        String path = absolutePath.endsWith(".mv.db")
+                ? absolutePath.substring(0, absolutePath.length() - ".mv.db".length())
+                : absolutePath;
+        // A dry run neither creates the database nor changes its schema: an existing database is opened
+        // as it is, a missing one is replaced by an empty in-memory database
+        boolean exists = Files.exists(Path.of(path + ".mv.db"));
+        String url = !dryRun ? "jdbc:h2:file:" + path
+                : exists ? "jdbc:h2:file:" + path + ";IFEXISTS=TRUE"
+                : "jdbc:h2:mem:";
+        try {
+            this.connection = DriverManager.getConnection(url);
+            if (!dryRun || !exists) {
+                try (Statement statement = connection.createStatement()) {
+                    for (String ddl : SCHEMA) {
+                        statement.execute(ddl);
+                    }
+                }
+            }
+            connection.setAutoCommit(false);
+            try (PreparedStatement insertRun = connection.prepareStatement(
+                    "INSERT INTO runs (started_at) VALUES (?)")) {
+                insertRun.setTimestamp(1, runTime);
+                insertRun.executeUpdate();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to open history database " + path, e);
+        }
+    }
+
+    @Override
+    public void write(String storeType, AppMetadata appMetadata) throws IOException {
+        try {
+            long appRef = resolveAppId(storeType, appMetadata.getBundleId());
+            updateAppFields(appRef, appFields(appMetadata));
+            updateLocalizationFields(appRef, localizationFields(appMetadata));
+        } catch (SQLException e) {
+            throw new IOException("Failed to write history for " + appMetadata.getBundleId(), e);
+        }
+    }
+
+    private long resolveAppId(String storeType, String bundleId) throws SQLException {
+        String key = storeType + "/" + bundleId;
+        Long cached = appIds.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT id FROM apps WHERE store = ? AND bundle_id = ?")) {
+            select.setString(1, storeType);
+            select.setString(2, bundleId);
+            try (ResultSet rs = select.executeQuery()) {
+                if (rs.next()) {
+                    appIds.put(key, rs.getLong(1));
+                    return rs.getLong(1);
+                }
+            }
+        }
+
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO apps (store, bundle_id) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            insert.setString(1, storeType);
+            insert.setString(2, bundleId);
+            insert.executeUpdate();
+            try (ResultSet rs = insert.getGeneratedKeys()) {
+                rs.next();
+                appIds.put(key, rs.getLong(1));
+                return rs.getLong(1);
+            }
+        }
+    }
+
+    private void updateAppFields(long appRef, Map<String, String> fields) throws SQLException {
+        Map<String, String> current = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT field, field_value FROM app_field_values WHERE app_ref = ? AND valid_to IS NULL")) {
+            select.setLong(1, appRef);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    current.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+
+        try (PreparedStatement close = connection.prepareStatement(
+                "UPDATE app_field_values SET valid_to = ? WHERE app_ref = ? AND field = ? AND valid_to IS NULL");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO app_field_values (app_ref, field, field_value, valid_from) VALUES (?, ?, ?, ?)")) {
+            Set<String> names = new HashSet<>(current.keySet());
+            names.addAll(fields.keySet());
+            for (String field : names) {
+                String oldValue = current.get(field);
+                String newValue = fields.get(field);
+                if (Objects.equals(oldValue, newValue)) {
+                    continue;
+                }
+                changedValues++;
+                if (current.containsKey(field)) {
+                    close.setTimestamp(1, runTime);
+                    close.setLong(2, appRef);
+                    close.setString(3, field);
+                    close.addBatch();
+                }
+                if (newValue != null) {
+                    insert.setLong(1, appRef);
+                    insert.setString(2, field);
+                    insert.setString(3, newValue);
+                    insert.setTimestamp(4, runTime);
+                    insert.addBatch();
+                }
+            }
+            close.executeBatch();
+            insert.executeBatch();
+        }
+    }
+
+    private void updateLocalizationFields(long appRef, Map<String, String> fields) throws SQLException {
+        // Keys are "<locale>\n<field>"; a newline cannot occur in either part
+        Map<String, String> current = new HashMap<>();
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT locale, field, field_value FROM localization_field_values "
+                        + "WHERE app_ref = ? AND valid_to IS NULL")) {
+            select.setLong(1, appRef);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    current.put(rs.getString(1) + "\n" + rs.getString(2), rs.getString(3));
+                }
+            }
+        }
+
+        try (PreparedStatement close = connection.prepareStatement(
+                "UPDATE localization_field_values SET valid_to = ? "
+                        + "WHERE app_ref = ? AND locale = ? AND field = ? AND valid_to IS NULL");
+             PreparedStatement insert = connection.prepareStatement(
+                     "INSERT INTO localization_field_values (app_ref, locale, field, field_value, valid_from) "
+                             + "VALUES (?, ?, ?, ?, ?)")) {
+            Set<String> keys = new HashSet<>(current.keySet());
+            keys.addAll(fields.keySet());
+            for (String key : keys) {
+                String oldValue = current.get(key);
+                String newValue = fields.get(key);
+                if (Objects.equals(oldValue, newValue)) {
+                    continue;
+                }
+                String locale = key.substring(0, key.indexOf('\n'));
+                String field = key.substring(key.indexOf('\n') + 1);
+                if (newValue == null && locales != null && !locales.contains(locale)) {
+                    // Not exported by this run, so not removed from the store either
+                    continue;
+                }
+                changedValues++;
+                if (current.containsKey(key)) {
+                    close.setTimestamp(1, runTime);
+                    close.setLong(2, appRef);
+                    close.setString(3, locale);
+                    close.setString(4, field);
+                    close.addBatch();
+                }
+                if (newValue != null) {
+                    insert.setLong(1, appRef);
+                    insert.setString(2, locale);
+                    insert.setString(3, field);
+                    insert.setString(4, newValue);
+                    insert.setTimestamp(5, runTime);
+                    insert.addBatch();
+                }
+            }
+            close.executeBatch();
+            insert.executeBatch();
+        }
+    }
+
+    private static Map<String, String> appFields(AppMetadata appMetadata) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        putIfNotNull(fields, "appId", appMetadata.getAppId());
+        putIfNotNull(fields, "currentVersion", appMetadata.getCurrentVersion());
+        putIfNotNull(fields, "versionCreatedAt", appMetadata.getVersionCreatedAt());
+        putIfNotNull(fields, "versionReleasedAt", appMetadata.getVersionReleasedAt());
+        return fields;
+    }
+
+    private static Map<String, String> localizationFields(AppMetadata appMetadata) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        if (appMetadata.getLocalizations() == null) {
+            return fields;
+        }
+        for (LocalizationMetadata localization : appMetadata.getLocalizations()) {
+            String prefix = localization.getLocale() + "\n";
+            var appInfo = localization.getAppInfo();
+            if (appInfo != null) {
+                putIfNotNull(fields, prefix + "name", appInfo.getName());
+                putIfNotNull(fields, prefix + "subtitle", appInfo.getSubtitle());
+                putIfNotNull(fields, prefix + "privacyPolicyUrl", appInfo.getPrivacyPolicyUrl());
+                putIfNotNull(fields, prefix + "privacyChoicesUrl", appInfo.getPrivacyChoicesUrl());
+            }
+            var version = localization.getVersion();
+            if (version != null) {
+                putIfNotNull(fields, prefix + "description", version.getDescription());
+                putIfNotNull(fields, prefix + "keywords", version.getKeywords());
+                putIfNotNull(fields, prefix + "promotionalText", version.getPromotionalText());
+                putIfNotNull(fields, prefix + "marketingUrl", version.getMarketingUrl());
+                putIfNotNull(fields, prefix + "supportUrl", version.getSupportUrl());
+            }
+            if (localization.getInAppPurchases() != null) {
+                localization.getInAppPurchases().forEach((productId, product) -> {
+                    putIfNotNull(fields, prefix + "inAppPurchases/" + productId + "/name", product.getName());
+                    putIfNotNull(fields, prefix + "inAppPurchases/" + productId + "/description",
+                            product.getDescription());
+                });
+            }
+            if (localization.getSubscriptionGroups() != null) {
+                localization.getSubscriptionGroups().forEach((referenceName, group) -> {
+                    putIfNotNull(fields, prefix + "subscriptionGroups/" + referenceName + "/name", group.getName());
+                    putIfNotNull(fields, prefix + "subscriptionGroups/" + referenceName + "/customAppName",
+                            group.getCustomAppName());
+                });
+            }
+            if (localization.getSubscriptions() != null) {
+                localization.getSubscriptions().forEach((productId, product) -> {
+                    putIfNotNull(fields, prefix + "subscriptions/" + productId + "/name", product.getName());
+                    putIfNotNull(fields, prefix + "subscriptions/" + productId + "/description",
+                            product.getDescription());
+                });
+            }
+        }
+        return fields;
+    }
+
+    private static void putIfNotNull(Map<String, String> map, String key, Object value) {
+        if (value != null) {
+            map.put(key, value.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (dryRun) {
+                connection.rollback();
+                log.atInfo().addKeyValue("values", changedValues).log("[DRY RUN] Would record changed values");
+            } else {
+                connection.commit();
+                log.atDebug().addKeyValue("values", changedValues).log("History database: recorded changed values");
+            }
+        } catch (SQLException e) {
+            throw new IOException("Failed to commit history database", e);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                // Ignore close errors after commit/rollback
+            }
+        }
+    }
+}
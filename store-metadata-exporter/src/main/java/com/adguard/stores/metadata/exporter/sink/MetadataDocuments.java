@@ -0,0 +1,112 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Converts the metadata model into the JSON documents shared by all sinks.
+ */
+public final class MetadataDocuments {
+
+    /** Top-level keys of a packed per-app file, see {@link OutputLayout#PACKED}. */
+    public static final String PACKED_METADATA = "metadata";
+    public static final String PACKED_LOCALIZATIONS = "localizations";
+
+    private MetadataDocuments() {
+    }
+
+    /**
+     * Creates the mapper used for all pretty-printed metadata files.
+     */
+    public static ObjectMapper createObjectMapper() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+        objectMapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        return objectMapper;
+    }
+
+    public static Map<String, Object> toMetadataJson(AppMetadata appMetadata) {
+        Map<String, Object> metadataJson = new LinkedHashMap<>();
+        metadataJson.put("appId", appMetadata.getAppId());
+        metadataJson.put("bundleId", appMetadata.getBundleId());
+        metadataJson.put("currentVersion", appMetadata.getCurrentVersion());
+        if (appMetadata.getVersionCreatedAt() != null) {
+            metadataJson.put("versionCreatedAt", appMetadata.getVersionCreatedAt().toString());
+        }
+        if (appMetadata.getVersionReleasedAt() != null) {
+            metadataJson.put("versionReleasedAt", appMetadata.getVersionReleasedAt().toString());
+        }
+        return metadataJson;
+    }
+
+    public static Map<String, Object> toLocalizationJson(LocalizationMetadata localization) {
+        Map<String, Object> localizationJson = new LinkedHashMap<>();
+        localizationJson.put("locale", localization.getLocale());
+
+        if (localization.getAppInfo() != null) {
+            Map<String, Object> appInfoJson = new LinkedHashMap<>();
+            putIfNotNull(appInfoJson, "name", localization.getAppInfo().getName());
+            putIfNotNull(appInfoJson, "subtitle", localization.getAppInfo().getSubtitle());
+            putIfNotNull(appInfoJson, "privacyPolicyUrl", localization.getAppInfo().getPrivacyPolicyUrl());
+            putIfNotNull(appInfoJson, "privacyChoicesUrl", localization.getAppInfo().getPrivacyChoicesUrl());
+            if (!appInfoJson.isEmpty()) {
+                localizationJson.put("appInfo", appInfoJson);
+            }
+        }
+
+        if (localization.getVersion() != null) {
+            Map<String, Object> versionJson = new LinkedHashMap<>();
+            putIfNotNull(versionJson, "description", localization.getVersion().getDescription());
+            putIfNotNull(versionJson, "keywords", localization.getVersion().getKeywords());
+            putIfNotNull(versionJson, "promotionalText", localization.getVersion().getPromotionalText());
+            putIfNotNull(versionJson, "marketingUrl", localization.getVersion().getMarketingUrl());
+            putIfNotNull(versionJson, "supportUrl", localization.getVersion().getSupportUrl());
+            if (!versionJson.isEmpty()) {
+                localizationJson.put("version", versionJson);
+            }
+        }
+
+        if (localization.getInAppPurchases() != null) {
+            localizationJson.put("inAppPurchases", toProductsJson(localization.getInAppPurchases()));
+        }
+        if (localization.getSubscriptionGroups() != null) {
+            Map<String, Object> groupsJson = new LinkedHashMap<>();
+            localization.getSubscriptionGroups().forEach((referenceName, group) -> {
+                Map<String, Object> groupJson = new LinkedHashMap<>();
+                putIfNotNull(groupJson, "name", group.getName());
+                putIfNotNull(groupJson, "customAppName", group.getCustomAppName());
+                groupsJson.put(referenceName, groupJson);
+            });
+            localizationJson.put("subscriptionGroups", groupsJson);
+        }
+        if (localization.getSubscriptions() != null) {
+            localizationJson.put("subscriptions", toProductsJson(localization.getSubscriptions()));
+        }
+
+        return localizationJson;
+    }
+
+    private static Map<String, Object> toProductsJson(Map<String, LocalizationMetadata.ProductData> products) {
+        Map<String, Object> productsJson = new LinkedHashMap<>();
+        products.forEach((productId, product) -> {
+            Map<String, Object> productJson = new LinkedHashMap<>();
+            putIfNotNull(productJson, "name", product.getName());
+            putIfNotNull(productJson, "description", product.getDescription());
+            productsJson.put(productId, productJson);
+        });
+        return productsJson;
+    }
+
+    private static void putIfNotNull(Map<String, Object> map, String key, Object value) {
+        if (value != null) {
+            map.put(key, value);
+        }
+    }
+}
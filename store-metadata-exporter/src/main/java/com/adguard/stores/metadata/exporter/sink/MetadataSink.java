@@ -0,0 +1,19 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination for exported app metadata. Implementations receive one call per app
+ * and are closed once the run is finished.
+ */
+public interface MetadataSink extends Closeable {
+
+    void write(String storeType, AppMetadata appMetadata) throws IOException;
+
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,68 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streams one compact JSON record per app and locale, separated by newlines.
+ *
+ * <p>All records go through a single {@link JsonGenerator}, so the whole run is one
+ * sequential write. Apps without localizations produce a single record without a locale.</p>
+ */
+public class NdjsonMetadataSink implements MetadataSink {
+
+    private final JsonGenerator generator;
+
+    public NdjsonMetadataSink(OutputStream out) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        this.generator = objectMapper.getFactory()
+                .createGenerator(new BufferedOutputStream(out), JsonEncoding.UTF8);
+        // Records are terminated explicitly, so no separator is needed between root values
+        this.generator.setRootValueSeparator(null);
+    }
+
+    @Override
+    public void write(String storeType, AppMetadata appMetadata) throws IOException {
+        Map<String, Object> appRecord = new LinkedHashMap<>();
+        appRecord.put("store", storeType);
+        appRecord.putAll(MetadataDocuments.toMetadataJson(appMetadata));
+
+        List<LocalizationMetadata> localizations = appMetadata.getLocalizations() != null
+                ? appMetadata.getLocalizations() : List.of();
+        if (localizations.isEmpty()) {
+            writeRecord(appRecord);
+        }
+
+        for (LocalizationMetadata localization : localizations.stream()
+                .sorted(Comparator.comparing(LocalizationMetadata::getLocale))
+                .toList()) {
+            Map<String, Object> record = new LinkedHashMap<>(appRecord);
+            record.putAll(MetadataDocuments.toLocalizationJson(localization));
+            writeRecord(record);
+        }
+
+        // Make each finished app visible to downstream readers (e.g. when streaming to stdout)
+        generator.flush();
+    }
+
+    private void writeRecord(Map<String, Object> record) throws IOException {
+        generator.writeObject(record);
+        generator.writeRaw('\n');
+    }
+
+    @Override
+    public void close() throws IOException {
+        generator.close();
+    }
+}
@@ -0,0 +1,18 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+public enum OutputFormat {
+    /** One JSON file per app and locale under the output directory. */
+    DIRECTORY,
+    /** Newline-delimited JSON, one record per app and locale. */
+    NDJSON,
+    /** Single compressed archive of the directory tree (.zip, .tar.gz or .tgz). */
+    ARCHIVE,
+    /** Commit the directory tree straight into the git repository containing the output directory. */
+    GIT,
+    /** Content-addressed snapshot store with one manifest per run. */
+    SNAPSHOT,
+    /** Embedded H2 database with the full change history of every field. */
+    HISTORY_DB,
+    /** Parquet files partitioned by store and run date. */
+    PARQUET
+}
@@ -0,0 +1,8 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+public enum OutputLayout {
+    /** {@code <store>/<bundleId>/metadata.json} and one {@code localizations/<locale>.json} per locale. */
+    TREE,
+    /** One {@code <store>/<bundleId>.json} per app with the metadata and all localizations sorted by locale. */
+    PACKED
+}
@@ -0,0 +1,70 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Expands files written with the {@link OutputLayout#PACKED} layout back into the
+ * {@link OutputLayout#TREE} layout. The expanded files are byte-identical to the ones
+ * the tree layout would have produced.
+ */
+public class PackedLayoutReader {
+
+    private final ObjectMapper objectMapper = MetadataDocuments.createObjectMapper();
+
+    /**
+     * @return the number of expanded apps
+     */
+    public int expand(Path packedDir, Path targetDir) throws IOException {
+        int apps = 0;
+        for (Path storeDir : listSorted(packedDir)) {
+            if (!Files.isDirectory(storeDir)) {
+                continue;
+            }
+            for (Path packedFile : listSorted(storeDir)) {
+                String fileName = packedFile.getFileName().toString();
+                if (!Files.isRegularFile(packedFile) || !fileName.endsWith(".json")) {
+                    continue;
+                }
+                String bundleId = fileName.substring(0, fileName.length() - ".json".length());
+                Path appDir = targetDir.resolve(storeDir.getFileName().toString()).resolve(bundleId);
+                expandApp(packedFile, appDir);
+                apps++;
+            }
+        }
+        return apps;
+    }
+
+    private void expandApp(Path packedFile, Path appDir) throws IOException {
+        Map<String, Object> packedJson = objectMapper.readValue(packedFile.toFile(),
+                new TypeReference<LinkedHashMap<String, Object>>() {});
+
+        Files.createDirectories(appDir);
+        Files.write(appDir.resolve("metadata.json"),
+                objectMapper.writeValueAsBytes(packedJson.get(MetadataDocuments.PACKED_METADATA)));
+
+        Object localizations = packedJson.get(MetadataDocuments.PACKED_LOCALIZATIONS);
+        if (localizations instanceof Map<?, ?> localizationsJson) {
+            Path localizationsDir = appDir.resolve("localizations");
+            Files.createDirectories(localizationsDir);
+            for (Map.Entry<?, ?> localization : localizationsJson.entrySet()) {
+                Files.write(localizationsDir.resolve(localization.getKey() + ".json"),
+                        objectMapper.writeValueAsBytes(localization.getValue()));
+            }
+        }
+    }
+
+    private static List<Path> listSorted(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+}
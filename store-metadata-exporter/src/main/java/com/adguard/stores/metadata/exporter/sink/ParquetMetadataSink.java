@@ -0,0 +1,343 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.adguard.stores.metadata.exporter.model.AppMetadata;
+import com.adguard.stores.metadata.exporter.model.LocalizationMetadata;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.parquet.bytes.BytesInput;
+import org.apache.parquet.compression.CompressionCodecFactory;
+import org.apache.parquet.conf.ParquetConfiguration;
+import org.apache.parquet.conf.PlainParquetConfiguration;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.api.WriteSupport;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.LocalOutputFile;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.api.Binary;
+import org.apache.parquet.io.api.RecordConsumer;
+import org.apache.parquet.schema.LogicalTypeAnnotation;
+import org.apache.parquet.schema.MessageType;
+import org.apache.parquet.schema.PrimitiveType.PrimitiveTypeName;
+import org.apache.parquet.schema.Types;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes each run as Parquet files partitioned by store and run date:
+ *
+ * <pre>
+ * store=appstore/date=2026-01-15/apps.parquet
+ * store=appstore/date=2026-01-15/localizations.parquet
+ * </pre>
+ *
+ * <p>Identifier, locale and URL columns are dictionary-encoded; long text columns (description,
+ * keywords, ...) are stored plain. Pages are gzip-compressed with the JDK codec, so no Hadoop or
+ * native compression libraries are required at runtime.</p>
+ */
+public class ParquetMetadataSink implements MetadataSink {
+
+    private static final Logger log = LoggerFactory.getLogger(ParquetMetadataSink.class);
+
+    private static final MessageType APPS_SCHEMA = Types.buildMessage()
+            .required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("app_id")
+            .required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("bundle_id")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("current_version")
+            .optional(PrimitiveTypeName.INT64)
+            .as(LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MILLIS))
+            .named("version_created_at")
+            .optional(PrimitiveTypeName.INT64)
+            .as(LogicalTypeAnnotation.timestampType(true, LogicalTypeAnnotation.TimeUnit.MILLIS))
+            .named("version_released_at")
+            .named("apps");
+
+    private static final MessageType LOCALIZATIONS_SCHEMA = Types.buildMessage()
+            .required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("app_id")
+            .required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("bundle_id")
+            .required(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("locale")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("name")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("subtitle")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("privacy_policy_url")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("privacy_choices_url")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("description")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("keywords")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("promotional_text")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("marketing_url")
+            .optional(PrimitiveTypeName.BINARY).as(LogicalTypeAnnotation.stringType()).named("support_url")
+            .named("localizations");
+
+    private static final List<String> DICTIONARY_COLUMNS = List.of(
+            "app_id", "bundle_id", "locale", "privacy_policy_url", "privacy_choices_url", "marketing_url",
+            "support_url");
+
+    private final Path outputDir;
+    private final LocalDate runDate;
+    private final boolean dryRun;
+    private final Map<String, ParquetWriter<Object[]>> appWriters = new HashMap<>();
+    private final Map<String, ParquetWriter<Object[]>> localizationWriters = new HashMap<>();
+
+    public ParquetMetadataSink(Path outputDir, LocalDate runDate, boolean dryRun) {
+        this.outputDir = outputDir;
+        this.runDate = runDate;
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    public void write(String storeType, AppMetadata appMetadata) throws IOException {
+        if (dryRun) {
+            log.atInfo().addKeyValue("store", storeType).addKeyValue("app", appMetadata.getBundleId())
+                    .log("[DRY RUN] Would write Parquet rows");
+            return;
+        }
+
+        appWriter(storeType).write(new Object[]{
+                appMetadata.getAppId(),
+                appMetadata.getBundleId(),
+                appMetadata.getCurrentVersion(),
+                appMetadata.getVersionCreatedAt(),
+                appMetadata.getVersionReleasedAt()
+        });
+
+        List<LocalizationMetadata> localizations = appMetadata.getLocalizations() != null
+                ? appMetadata.getLocalizations() : List.of();
+        ParquetWriter<Object[]> writer = localizationWriter(storeType);
+        for (LocalizationMetadata localization : localizations.stream()
+                .sorted(Comparator.comparing(LocalizationMetadata::getLocale))
+                .toList()) {
+            var appInfo = localization.getAppInfo();
+            var version = localization.getVersion();
+            writer.write(new Object[]{
+                    appMetadata.getAppId(),
+                    appMetadata.getBundleId(),
+                    localization.getLocale(),
+                    appInfo != null ? appInfo.getName() : null,
+                    appInfo != null ? appInfo.getSubtitle() : null,
+                    appInfo != null ? appInfo.getPrivacyPolicyUrl() : null,
+                    appInfo != null ? appInfo.getPrivacyChoicesUrl() : null,
+                    version != null ? version.getDescription() : null,
+                    version != null ? version.getKeywords() : null,
+                    version != null ? version.getPromotionalText() : null,
+                    version != null ? version.getMarketingUrl() : null,
+                    version != null ? version.getSupportUrl() : null
+            });
+        }
+    }
+
+    private ParquetWriter<Object[]> appWriter(String storeType) throws IOException {
+        ParquetWriter<Object[]> writer = appWriters.get(storeType);
+        if (writer == null) {
+            writer = openWriter(storeType, "apps.parquet", APPS_SCHEMA);
+            appWriters.put(storeType, writer);
+        }
+        return writer;
+    }
+
+    private ParquetWriter<Object[]> localizationWriter(String storeType) throws IOException {
+        ParquetWriter<Object[]> writer = localizationWriters.get(storeType);
+        if (writer == null) {
+            writer = openWriter(storeType, "localizations.parquet", LOCALIZATIONS_SCHEMA);
+            localizationWriters.put(storeType, writer);
+        }
+        return writer;
+    }
+
+    private ParquetWriter<Object[]> openWriter(String storeType, String fileName, MessageType schema)
+            throws IOException {
+        Path partitionDir = outputDir.resolve("store=" + storeType).resolve("date=" + runDate);
+        Files.createDirectories(partitionDir);
+        Path file = partitionDir.resolve(fileName);
+        log.atDebug().addKeyValue("file", file).log("Writing");
+
+        RowWriterBuilder builder = new RowWriterBuilder(new LocalOutputFile(file), schema)
+                .withConf(new PlainParquetConfiguration())
+                .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+                .withCodecFactory(new GzipCodecFactory())
+                .withCompressionCodec(CompressionCodecName.GZIP)
+                .withDictionaryEncoding(false);
+        for (String column : DICTIONARY_COLUMNS) {
+            if (schema.containsField(column)) {
+                builder.withDictionaryEncoding(column, true);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (ParquetWriter<Object[]> writer : List.copyOf(appWriters.values())) {
+            failure = closeQuietly(writer, failure);
+        }
+        for (ParquetWriter<Object[]> writer : List.copyOf(localizationWriters.values())) {
+            failure = closeQuietly(writer, failure);
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static IOException closeQuietly(ParquetWriter<Object[]> writer, IOException failure) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            if (failure == null) {
+                return e;
+            }
+            failure.addSuppressed(e);
+        }
+        return failure;
+    }
+
+    /**
+     * Writes positional rows: strings as UTF-8 binaries, {@link Instant}s as epoch milliseconds.
+     * Null values are skipped, which leaves the optional column empty.
+     */
+    private static class RowWriteSupport extends WriteSupport<Object[]> {
+
+        private final MessageType schema;
+        private RecordConsumer recordConsumer;
+
+        RowWriteSupport(MessageType schema) {
+            this.schema = schema;
+        }
+
+        // Abstract in WriteSupport; the ParquetConfiguration overload below is the one in use
+        @Override
+        @SuppressWarnings("deprecation")
+        public WriteContext init(Configuration configuration) {
+            return new WriteContext(schema, Map.of());
+        }
+
+        @Override
+        public WriteContext init(ParquetConfiguration configuration) {
+            return new WriteContext(schema, Map.of());
+        }
+
+        @Override
+        public void prepareForWrite(RecordConsumer recordConsumer) {
+            this.recordConsumer = recordConsumer;
+        }
+
+        @Override
+        public void write(Object[] row) {
+            recordConsumer.startMessage();
+            for (int i = 0; i < row.length; i++) {
+                Object value = row[i];
+                if (value == null) {
+                    continue;
+                }
+                String field = schema.getFieldName(i);
+                recordConsumer.startField(field, i);
+                if (value instanceof Instant instant) {
+                    recordConsumer.addLong(instant.toEpochMilli());
+                } else {
+                    recordConsumer.addBinary(Binary.fromString(value.toString()));
+                }
+                recordConsumer.endField(field, i);
+            }
+            recordConsumer.endMessage();
+        }
+    }
+
+    private static class RowWriterBuilder extends ParquetWriter.Builder<Object[], RowWriterBuilder> {
+
+        private final MessageType schema;
+
+        RowWriterBuilder(OutputFile file, MessageType schema) {
+            super(file);
+            this.schema = schema;
+        }
+
+        @Override
+        protected RowWriterBuilder self() {
+            return this;
+        }
+
+        // Abstract in ParquetWriter.Builder; the ParquetConfiguration overload below is the one in use
+        @Override
+        @SuppressWarnings("deprecation")
+        protected WriteSupport<Object[]> getWriteSupport(Configuration configuration) {
+            return new RowWriteSupport(schema);
+        }
+
+        @Override
+        protected WriteSupport<Object[]> getWriteSupport(ParquetConfiguration configuration) {
+            return new RowWriteSupport(schema);
+        }
+    }
+
+    /**
+     * GZIP page compression backed by {@code java.util.zip}. The default codec factory resolves
+     * codecs through Hadoop, which is not on the runtime classpath.
+     */
+    private static class GzipCodecFactory implements CompressionCodecFactory {
+
+        @Override
+        public BytesInputCompressor getCompressor(CompressionCodecName codecName) {
+            return new BytesInputCompressor() {
+                @Override
+                public BytesInput compress(BytesInput bytes) throws IOException {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                        bytes.writeAllTo(gzip);
+                    }
+                    return BytesInput.from(out.toByteArray());
+                }
+
+                @Override
+                public CompressionCodecName getCodecName() {
+                    return CompressionCodecName.GZIP;
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        }
+
+        @Override
+        public BytesInputDecompressor getDecompressor(CompressionCodecName codecName) {
+            return new BytesInputDecompressor() {
+                @Override
+                public BytesInput decompress(BytesInput bytes, int uncompressedSize) throws IOException {
+                    try (InputStream gzip = new GZIPInputStream(bytes.toInputStream())) {
+                        return BytesInput.from(gzip.readNBytes(uncompressedSize));
+                    }
+                }
+
+                @Override
+                public void decompress(ByteBuffer input, int compressedSize, ByteBuffer output, int uncompressedSize)
+                        throws IOException {
+                    byte[] compressed = new byte[compressedSize];
+                    input.get(compressed);
+                    try (InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                        output.put(gzip.readNBytes(uncompressedSize));
+                    }
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes each run into a {@link SnapshotStore}: file contents are deduplicated by hash
+ * and the run itself is recorded as a manifest when the sink is closed.
+ */
+public class SnapshotMetadataSink extends FileTreeSink {
+
+    private static final Logger log = LoggerFactory.getLogger(SnapshotMetadataSink.class);
+    private static final DateTimeFormatter RUN_ID_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final SnapshotStore store;
+    private final String runId;
+    private final boolean dryRun;
+    private final Map<String, String> files = new TreeMap<>();
+
+    public SnapshotMetadataSink(SnapshotStore store, OutputLayout layout, boolean dryRun) {
+        super(layout);
+        this.store = store;
+        this.runId = newRunId(store);
+        this.dryRun = dryRun;
+    }
+
+    @Override
+    protected boolean writeFile(String path, byte[] content) throws IOException {
+        if (dryRun) {
+            log.atInfo().addKeyValue("path", path).log("[DRY RUN] Would snapshot");
+            return false;
+        }
+
+        String hash = store.putObject(content);
+        files.put(path, hash);
+        log.atDebug().addKeyValue("path", path).addKeyValue("hash", hash).log("Snapshot");
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (dryRun) {
+            return;
+        }
+        store.writeManifest(runId, files);
+        log.atInfo().addKeyValue("run", runId).addKeyValue("files", files.size()).log("Snapshot written");
+    }
+
+    private static String newRunId(SnapshotStore store) {
+        String base = RUN_ID_FORMAT.format(Instant.now());
+        String runId = base;
+        for (int i = 1; store.hasRun(runId); i++) {
+            runId = base + "-" + i;
+        }
+        return runId;
+    }
+}
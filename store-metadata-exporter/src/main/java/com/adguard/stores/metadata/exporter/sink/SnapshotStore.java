@@ -0,0 +1,163 @@
+package com.adguard.stores.metadata.exporter.sink;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed store of metadata snapshots.
+ *
+ * <pre>
+ * objects/ab/cdef...      gzip-compressed file content, named by the SHA-256 of the uncompressed content
+ * manifests/&lt;runId&gt;.json  path -&gt; hash map of every file written in a run
+ * </pre>
+ *
+ * <p>Identical content is stored once no matter how many runs reference it, so the store only
+ * grows with actual changes. Diffs between runs only need the manifests.</p>
+ */
+public class SnapshotStore {
+
+    private static final String OBJECTS_DIR = "objects";
+    private static final String MANIFESTS_DIR = "manifests";
+    private static final String MANIFEST_SUFFIX = ".json";
+
+    private final Path root;
+    private final ObjectMapper objectMapper;
+
+    public SnapshotStore(Path root) {
+        this.root = root;
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    /**
+     * Stores the content unless an object with the same hash already exists.
+     *
+     * @return the SHA-256 hash of the content
+     */
+    public String putObject(byte[] content) throws IOException {
+        String hash = hash(content);
+        Path objectFile = objectPath(hash);
+        if (Files.exists(objectFile)) {
+            return hash;
+        }
+
+        Files.createDirectories(objectFile.getParent());
+        Path tempFile = Files.createTempFile(objectFile.getParent(), hash, ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile))) {
+                out.write(content);
+            }
+            moveAtomically(tempFile, objectFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        return hash;
+    }
+
+    public byte[] readObject(String hash) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(objectPath(hash)))) {
+            return in.readAllBytes();
+        }
+    }
+
+    public void writeManifest(String runId, Map<String, String> files) throws IOException {
+        Path manifestsDir = root.resolve(MANIFESTS_DIR);
+        Files.createDirectories(manifestsDir);
+
+        Manifest manifest = new Manifest();
+        manifest.runId = runId;
+        manifest.files = new TreeMap<>(files);
+
+        Path tempFile = Files.createTempFile(manifestsDir, runId, ".tmp");
+        try {
+            objectMapper.writeValue(tempFile.toFile(), manifest);
+            moveAtomically(tempFile, manifestsDir.resolve(runId + MANIFEST_SUFFIX));
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    public SortedMap<String, String> readManifest(String runId) throws IOException {
+        String resolvedRunId = "latest".equals(runId) ? latestRunId() : runId;
+        Path manifestFile = root.resolve(MANIFESTS_DIR).resolve(resolvedRunId + MANIFEST_SUFFIX);
+        if (!Files.exists(manifestFile)) {
+            throw new IOException("Snapshot run not found: " + runId);
+        }
+        return objectMapper.readValue(manifestFile.toFile(), Manifest.class).files;
+    }
+
+    public boolean hasRun(String runId) {
+        return Files.exists(root.resolve(MANIFESTS_DIR).resolve(runId + MANIFEST_SUFFIX));
+    }
+
+    /**
+     * Lists run ids in chronological order (run ids are UTC timestamps, so they sort naturally).
+     */
+    public List<String> listRuns() throws IOException {
+        Path manifestsDir = root.resolve(MANIFESTS_DIR);
+        if (!Files.isDirectory(manifestsDir)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(manifestsDir)) {
+            return files.map(file -> file.getFileName().toString())
+                    .filter(name -> name.endsWith(MANIFEST_SUFFIX))
+                    .map(name -> name.substring(0, name.length() - MANIFEST_SUFFIX.length()))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private String latestRunId() throws IOException {
+        List<String> runs = listRuns();
+        if (runs.isEmpty()) {
+            throw new IOException("Snapshot store is empty: " + root);
+        }
+        return runs.get(runs.size() - 1);
+    }
+
+    private Path objectPath(String hash) {
+        return root.resolve(OBJECTS_DIR).resolve(hash.substring(0, 2)).resolve(hash.substring(2));
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Another writer stored the same content first
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Manifest {
+        public String runId;
+        public SortedMap<String, String> files;
+    }
+}
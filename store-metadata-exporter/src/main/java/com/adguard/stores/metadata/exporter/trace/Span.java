@@ -0,0 +1,64 @@
+package com.adguard.stores.metadata.exporter.trace;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A timed section of the run, recorded by the active {@link TraceRecorder} when closed. Without an
+ * active recorder a shared no-op span is returned, so spans can stay in hot paths.
+ * <p>
+ * A span has to be closed on the thread that began it.
+ */
+public final class Span implements AutoCloseable {
+
+    private static final Span NOOP = new Span(null, null, null, 0, 0);
+
+    private final TraceRecorder recorder;
+    private final String category;
+    private final String name;
+    private final long threadId;
+    private final long startNanos;
+    private Map<String, Object> args;
+
+    private Span(TraceRecorder recorder, String category, String name, long threadId, long startNanos) {
+        this.recorder = recorder;
+        this.category = category;
+        this.name = name;
+        this.threadId = threadId;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * @param category the kind of span: {@code run}, {@code store}, {@code app}, {@code http},
+     *                 {@code parse}, {@code export} or {@code write}
+     * @param name     what the span covers, e.g. the bundle id or the HTTP operation
+     */
+    public static Span begin(String category, String name) {
+        TraceRecorder recorder = TraceRecorder.active();
+        if (recorder == null) {
+            return NOOP;
+        }
+        long threadId = recorder.registerThread(Thread.currentThread());
+        return new Span(recorder, category, name, threadId, System.nanoTime());
+    }
+
+    /**
+     * Adds an argument shown with the span in the trace viewer.
+     */
+    public Span arg(String key, Object value) {
+        if (recorder != null) {
+            if (args == null) {
+                args = new LinkedHashMap<>();
+            }
+            args.put(key, value);
+        }
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (recorder != null) {
+            recorder.add(category, name, threadId, startNanos, System.nanoTime(), args);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.adguard.stores.metadata.exporter.trace;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects the {@link Span}s of a run and writes them as a Chrome trace-event file when closed.
+ * <p>
+ * Every span becomes a complete ({@code "ph": "X"}) event on the lane of the thread that began it, so
+ * nesting follows from the timestamps: run, store and App Store apps on the main thread, Google Play
+ * fetches on the worker threads, and HTTP calls, parsing and file writes inside them. The file can be
+ * opened in {@code chrome://tracing}, Perfetto or Speedscope. Only one recording is active at a time.
+ */
+public class TraceRecorder implements Closeable {
+
+    private static final int PROCESS_ID = 1;
+
+    private static volatile TraceRecorder active;
+
+    private final Path file;
+    private final long originNanos = System.nanoTime();
+    private final Queue<Event> events = new ConcurrentLinkedQueue<>();
+    private final Map<Long, String> threadNames = new ConcurrentHashMap<>();
+
+    private TraceRecorder(Path file) {
+        this.file = file;
+    }
+
+    public static TraceRecorder start(Path file) {
+        TraceRecorder recorder = new TraceRecorder(file);
+        active = recorder;
+        return recorder;
+    }
+
+    public static boolean isEnabled() {
+        return active != null;
+    }
+
+    static TraceRecorder active() {
+        return active;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    long registerThread(Thread thread) {
+        long threadId = thread.getId();
+        threadNames.putIfAbsent(threadId, thread.getName());
+        return threadId;
+    }
+
+    void add(String category, String name, long threadId, long startNanos, long endNanos, Map<String, Object> args) {
+        events.add(new Event(category, name, threadId, startNanos, endNanos, args));
+    }
+
+    /**
+     * Stops the recording and writes the trace file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (active == this) {
+            active = null;
+        }
+
+        List<Event> sorted = new ArrayList<>(events);
+        // Viewers nest spans of a lane by start time; parents first when two spans start together
+        sorted.sort(Comparator.comparingLong(Event::startNanos)
+                .thenComparing(Comparator.comparingLong(Event::endNanos).reversed()));
+
+        Path parent = file.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        ObjectMapper objectMapper = new ObjectMapper();
+        try (JsonGenerator generator = objectMapper.getFactory()
+                .createGenerator(Files.newOutputStream(file), JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeStringField("displayTimeUnit", "ms");
+            generator.writeArrayFieldStart("traceEvents");
+
+            generator.writeStartObject();
+            generator.writeStringField("name", "process_name");
+            generator.writeStringField("ph", "M");
+            generator.writeNumberField("pid", PROCESS_ID);
+            generator.writeObjectFieldStart("args");
+            generator.writeStringField("name", "store-metadata-exporter");
+            generator.writeEndObject();
+            generator.writeEndObject();
+
+            for (var thread : threadNames.entrySet()) {
+                generator.writeStartObject();
+                generator.writeStringField("name", "thread_name");
+                generator.writeStringField("ph", "M");
+                generator.writeNumberField("pid", PROCESS_ID);
+                generator.writeNumberField("tid", thread.getKey());
+                generator.writeObjectFieldStart("args");
+                generator.writeStringField("name", thread.getValue());
+                generator.writeEndObject();
+                generator.writeEndObject();
+            }
+
+            for (Event event : sorted) {
+                generator.writeStartObject();
+                generator.writeStringField("name", event.name());
+                generator.writeStringField("cat", event.category());
+                generator.writeStringField("ph", "X");
+                // Timestamps and durations are in microseconds
+                generator.writeNumberField("ts", (event.startNanos() - originNanos) / 1000.0);
+                generator.writeNumberField("dur", (event.endNanos() - event.startNanos()) / 1000.0);
+                generator.writeNumberField("pid", PROCESS_ID);
+                generator.writeNumberField("tid", event.threadId());
+                if (event.args() != null) {
+                    generator.writeObjectField("args", event.args());
+                }
+                generator.writeEndObject();
+            }
+
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+    }
+
+    private record Event(String category, String name, long threadId, long startNanos, long endNanos,
+                         Map<String, Object> args) {
+    }
+}